@@ -0,0 +1,72 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes synthetic {@code @UpdateHandler} classes for the benchmarks, one package per handler count.
+ * <p>
+ * Handlers are spread evenly over commands, callback prefixes, regexes, localized buttons and state-gated
+ * messages, the way a conversation bot mixes them.
+ * {@code Fixtures} builds the updates that hit these handlers, keep both in sync.
+ * <p>
+ * Usage: {@code java GenerateHandlers.java <output directory> <handler count>...}
+ */
+public class GenerateHandlers {
+
+    static final String BASE_PACKAGE = "org.itburger.telegramupdatesdispatcher.benchmarks";
+    static final int STATES = 80;
+
+    public static void main(String[] args) throws IOException {
+        Path output = Path.of(args[0]);
+        for (int i = 1; i < args.length; i++) {
+            int count = Integer.parseInt(args[i]);
+            String packageName = BASE_PACKAGE + ".handlers.n" + count;
+            Path file = output.resolve(packageName.replace('.', '/')).resolve("Handlers" + count + ".java");
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, generate(packageName, count));
+        }
+    }
+
+    static String generate(String packageName, int count) {
+        StringBuilder source = new StringBuilder()
+                .append("package ").append(packageName).append(";\n\n")
+                .append("import org.itburger.telegramupdatesdispatcher.annotations.*;\n")
+                .append("import ").append(BASE_PACKAGE).append(".BenchUser;\n")
+                .append("import ").append(BASE_PACKAGE).append(".Sink;\n")
+                .append("import org.telegram.telegrambots.meta.api.objects.Update;\n\n")
+                .append("@UpdateHandler\n")
+                .append("public class Handlers").append(count).append(" {\n");
+
+        for (int i = 0; i < count; i++) {
+            source.append("\n    ").append(annotation(i)).append('\n')
+                    .append("    public void h").append(i).append("(Update update, BenchUser user) {\n")
+                    .append("        Sink.hit(").append(i).append(");\n")
+                    .append("    }\n");
+        }
+
+        source.append("}\n");
+        return source.toString();
+    }
+
+    static String annotation(int i) {
+        switch (i % 10) {
+            case 0:
+            case 5:
+                return "@CommandHandler(\"/cmd" + i + "\")";
+            case 1:
+            case 6:
+                return "@CallbackQueryHandler(value = \"cb" + i + ":\", startsWith = true)";
+            case 2:
+            case 7:
+                return "@MessageHandler(regex = \"^r" + i + ":\\\\d+$\")";
+            case 3:
+                return "@MessageHandler(localizedValueKey = \"key" + i + "\")";
+            case 8:
+                return "@MessageHandler(localizedValueKey = \"key" + i + "\", requiredStates = \"state" + i % STATES + "\")";
+            case 4:
+                return "@MessageHandler(value = \"btn" + i + "\", requiredStates = \"state" + i % STATES + "\")";
+            default:
+                return "@MessageHandler(requiredStates = \"state" + i % STATES + "\")";
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package org.itburger.telegramupdatesdispatcher.benchmarks;
+
+import org.itburger.telegramupdatesdispatcher.generics.LocaleService;
+
+public class BenchLocaleService implements LocaleService {
+
+    @Override
+    public String getText(String code, String key) {
+        return "[" + code + "] " + key;
+    }
+}
@@ -0,0 +1,16 @@
+package org.itburger.telegramupdatesdispatcher.benchmarks;
+
+import org.itburger.telegramupdatesdispatcher.generics.UserState;
+
+public class BenchState implements UserState {
+    private final String id;
+
+    public BenchState(String id) {
+        this.id = id;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+}
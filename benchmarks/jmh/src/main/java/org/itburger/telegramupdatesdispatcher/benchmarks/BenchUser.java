@@ -0,0 +1,40 @@
+package org.itburger.telegramupdatesdispatcher.benchmarks;
+
+import org.itburger.telegramupdatesdispatcher.generics.AbstractBotUser;
+
+public class BenchUser extends AbstractBotUser<BenchState> {
+    private Long telegramId;
+    private BenchState state;
+    private final String langCode;
+
+    public BenchUser(Long telegramId, BenchState state, String langCode) {
+        this.telegramId = telegramId;
+        this.state = state;
+        this.langCode = langCode;
+    }
+
+    @Override
+    public BenchState getState() {
+        return state;
+    }
+
+    @Override
+    public void setState(BenchState state) {
+        this.state = state;
+    }
+
+    @Override
+    public Long getTelegramId() {
+        return telegramId;
+    }
+
+    @Override
+    public void setTelegramId(Long telegramId) {
+        this.telegramId = telegramId;
+    }
+
+    @Override
+    public String getLangCode() {
+        return langCode;
+    }
+}
@@ -0,0 +1,49 @@
+package org.itburger.telegramupdatesdispatcher.benchmarks;
+
+import org.itburger.telegramupdatesdispatcher.TelegramUpdateDispatcher;
+import org.openjdk.jmh.annotations.*;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full {@link TelegramUpdateDispatcher#dispatch(Update)}: user lookup, middleware pipeline, routing and invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int handlerCount;
+
+    @Param
+    public Fixtures.Scenario scenario;
+
+    private TelegramUpdateDispatcher<BenchUser> dispatcher;
+    private Update update;
+
+    @Setup
+    public void setUp() {
+        InMemoryUserService users = new InMemoryUserService();
+        users.save(Fixtures.user(scenario, handlerCount));
+        dispatcher = Dispatchers.create(users, handlerCount);
+        update = Fixtures.update(scenario, handlerCount);
+
+        Sink.hit(Sink.NONE);
+        dispatcher.dispatch(update);
+        if (!scenario.reached(Sink.last(), handlerCount)) {
+            throw new IllegalStateException(scenario + " update reached handler " + Sink.last()
+                    + " instead of " + scenario.target(handlerCount));
+        }
+        RoutingParity.check(dispatcher, handlerCount);
+    }
+
+    @Benchmark
+    public void dispatch() {
+        dispatcher.dispatch(update);
+    }
+}
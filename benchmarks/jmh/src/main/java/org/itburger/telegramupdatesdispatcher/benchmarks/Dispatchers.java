@@ -0,0 +1,68 @@
+package org.itburger.telegramupdatesdispatcher.benchmarks;
+
+import org.itburger.telegramupdatesdispatcher.TelegramUpdateDispatcher;
+import org.itburger.telegramupdatesdispatcher.generics.HandlerRegistry;
+import org.springframework.context.support.GenericApplicationContext;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Enumeration;
+
+final class Dispatchers {
+
+    private static final GenericApplicationContext CONTEXT = new GenericApplicationContext();
+    private static final ClassLoader WITHOUT_REGISTRIES =
+            new RegistryHidingClassLoader(Dispatchers.class.getClassLoader());
+
+    static {
+        CONTEXT.refresh();
+    }
+
+    private Dispatchers() {
+    }
+
+    static String handlersPackage(int handlerCount) {
+        return "org.itburger.telegramupdatesdispatcher.benchmarks.handlers.n" + handlerCount;
+    }
+
+    static TelegramUpdateDispatcher<BenchUser> create(InMemoryUserService users, int handlerCount) {
+        return new TelegramUpdateDispatcher<>(
+                users, BenchUser.class, handlersPackage(handlerCount), CONTEXT, new BenchLocaleService());
+    }
+
+    /**
+     * Same as {@link #create(InMemoryUserService, int)}, but the generated registries are not visible,
+     * so handler methods are called reflectively.
+     */
+    static TelegramUpdateDispatcher<BenchUser> createByScan(InMemoryUserService users, int handlerCount) {
+        Thread thread = Thread.currentThread();
+        ClassLoader previous = thread.getContextClassLoader();
+        // ServiceLoader ищет реестры через контекстный загрузчик потока
+        thread.setContextClassLoader(WITHOUT_REGISTRIES);
+        try {
+            return create(users, handlerCount);
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+    }
+
+    // Делегирует всё родителю, кроме файла ServiceLoader со списком реестров обработчиков
+    private static final class RegistryHidingClassLoader extends ClassLoader {
+        private static final String REGISTRIES = "META-INF/services/" + HandlerRegistry.class.getName();
+
+        private RegistryHidingClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        public Enumeration<URL> getResources(String name) throws IOException {
+            return REGISTRIES.equals(name) ? Collections.emptyEnumeration() : super.getResources(name);
+        }
+
+        @Override
+        public URL getResource(String name) {
+            return REGISTRIES.equals(name) ? null : super.getResource(name);
+        }
+    }
+}
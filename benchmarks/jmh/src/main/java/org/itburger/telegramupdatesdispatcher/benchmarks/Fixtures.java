@@ -0,0 +1,143 @@
+package org.itburger.telegramupdatesdispatcher.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.UncheckedIOException;
+
+/**
+ * Updates and users for the handler sets written by {@code GenerateHandlers}.
+ * <p>
+ * Updates are parsed from JSON shaped like real Bot API responses. Each scenario targets a handler
+ * in the middle of the set, so indexes and linear scans both have work to do.
+ */
+public final class Fixtures {
+
+    public static final String LANG_CODE = "ru";
+    private static final int STATES = 80;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    public enum Scenario {
+        COMMAND(0),
+        CALLBACK(1),
+        REGEX(2),
+        LOCALIZED(3),
+        STATE_BUTTON(4),
+        STATE_CATCH_ALL(9),
+        UNMATCHED(-1);
+
+        private final int residue;
+
+        Scenario(int residue) {
+            this.residue = residue;
+        }
+
+        /**
+         * @return index of the handler that must receive the update, {@code -1} if no handler must receive it
+         */
+        public int target(int handlerCount) {
+            if (residue < 0) return -1;
+            int target = handlerCount / 2 / 10 * 10 + residue;
+            return target < handlerCount ? target : target - 10;
+        }
+
+        /**
+         * @return whether the update of this scenario was dispatched to the right handler
+         */
+        public boolean reached(int handler, int handlerCount) {
+            int target = target(handlerCount);
+            if (this == UNMATCHED) return handler == Sink.NONE;
+            // Любой обработчик «всё в состоянии S» подходит, порядок методов класса не определён
+            if (this == STATE_CATCH_ALL) return handler % 10 == residue && handler % STATES == target % STATES;
+            return handler == target;
+        }
+    }
+
+    private Fixtures() {
+    }
+
+    public static Update update(Scenario scenario, int handlerCount) {
+        int target = scenario.target(handlerCount);
+        long userId = userId(scenario);
+        switch (scenario) {
+            case COMMAND:
+                return command(userId, "/cmd" + target);
+            case CALLBACK:
+                return callback(userId, "cb" + target + ":42");
+            case REGEX:
+                return message(userId, "r" + target + ":123456");
+            case LOCALIZED:
+                return message(userId, new BenchLocaleService().getText(LANG_CODE, "key" + target));
+            case STATE_BUTTON:
+                return message(userId, "btn" + target);
+            default:
+                return message(userId, "Привет! Как дела?");
+        }
+    }
+
+    public static BenchUser user(Scenario scenario, int handlerCount) {
+        BenchState state = null;
+        if (scenario == Scenario.STATE_BUTTON || scenario == Scenario.STATE_CATCH_ALL) {
+            state = new BenchState("state" + scenario.target(handlerCount) % STATES);
+        }
+        return new BenchUser(userId(scenario), state, LANG_CODE);
+    }
+
+    private static long userId(Scenario scenario) {
+        return 100_000_000L + scenario.ordinal();
+    }
+
+    public static Update message(long userId, String text) {
+        return parse("{\"update_id\":815263001,\"message\":{\"message_id\":4211,"
+                + "\"from\":" + from(userId) + ",\"chat\":" + chat(userId) + ","
+                + "\"date\":1718000000,\"text\":" + quote(text) + "}}");
+    }
+
+    public static Update location(long userId) {
+        return parse("{\"update_id\":815263004,\"message\":{\"message_id\":4214,"
+                + "\"from\":" + from(userId) + ",\"chat\":" + chat(userId) + ","
+                + "\"date\":1718000000,\"location\":{\"latitude\":55.7558,\"longitude\":37.6173}}}");
+    }
+
+    public static Update command(long userId, String command) {
+        return parse("{\"update_id\":815263002,\"message\":{\"message_id\":4212,"
+                + "\"from\":" + from(userId) + ",\"chat\":" + chat(userId) + ","
+                + "\"date\":1718000000,\"text\":" + quote(command) + ","
+                + "\"entities\":[{\"offset\":0,\"length\":" + command.length() + ",\"type\":\"bot_command\"}]}}");
+    }
+
+    public static Update callback(long userId, String data) {
+        return parse("{\"update_id\":815263003,\"callback_query\":{\"id\":\"4382bfdwdsb323b2d9\","
+                + "\"from\":" + from(userId) + ","
+                + "\"message\":{\"message_id\":4213,\"from\":{\"id\":7000000001,\"is_bot\":true,\"first_name\":\"Bench Bot\","
+                + "\"username\":\"bench_bot\"},\"chat\":" + chat(userId) + ",\"date\":1718000000,\"text\":\"Меню\"},"
+                + "\"chat_instance\":\"-7352123456789012345\",\"data\":" + quote(data) + "}}");
+    }
+
+    private static String from(long userId) {
+        return "{\"id\":" + userId + ",\"is_bot\":false,\"first_name\":\"Иван\",\"last_name\":\"Петров\","
+                + "\"username\":\"ivan_petrov\",\"language_code\":\"" + LANG_CODE + "\"}";
+    }
+
+    private static String chat(long userId) {
+        return "{\"id\":" + userId + ",\"first_name\":\"Иван\",\"last_name\":\"Петров\","
+                + "\"username\":\"ivan_petrov\",\"type\":\"private\"}";
+    }
+
+    private static String quote(String text) {
+        try {
+            return MAPPER.writeValueAsString(text);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Update parse(String json) {
+        try {
+            return MAPPER.readValue(json, Update.class);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.itburger.telegramupdatesdispatcher.benchmarks;
+
+import org.itburger.telegramupdatesdispatcher.generics.AbstractUserService;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * User service without I/O, so benchmarks measure the dispatcher only.
+ */
+public class InMemoryUserService extends AbstractUserService<BenchUser> {
+    private final ConcurrentHashMap<Long, BenchUser> users = new ConcurrentHashMap<>();
+
+    @Override
+    public BenchUser findByTelegramId(Long telegramId) {
+        return users.get(telegramId);
+    }
+
+    @Override
+    public BenchUser save(BenchUser user) {
+        users.put(user.getTelegramId(), user);
+        return user;
+    }
+}
@@ -0,0 +1,112 @@
+package org.itburger.telegramupdatesdispatcher.benchmarks;
+
+import org.itburger.telegramupdatesdispatcher.MethodHandler;
+import org.itburger.telegramupdatesdispatcher.annotations.CallbackQueryHandler;
+import org.itburger.telegramupdatesdispatcher.annotations.CommandHandler;
+import org.itburger.telegramupdatesdispatcher.annotations.MessageHandler;
+import org.openjdk.jmh.annotations.*;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a single {@link MethodHandler#matches(Update, org.itburger.telegramupdatesdispatcher.generics.AbstractBotUser)}
+ * call for every kind of filter, with an update that passes it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchesBenchmark {
+
+    public enum Filter {
+        COMMAND("command"),
+        CALLBACK_PREFIX("callbackPrefix"),
+        REGEX("regex"),
+        LOCALIZED("localized"),
+        STATES("states");
+
+        // Метод SampleHandlers, с которого берётся аннотация фильтра
+        private final String annotatedMethod;
+
+        Filter(String annotatedMethod) {
+            this.annotatedMethod = annotatedMethod;
+        }
+    }
+
+    @Param
+    public Filter filter;
+
+    private MethodHandler handler;
+    private Update update;
+    private BenchUser user;
+
+    @Setup
+    public void setUp() throws NoSuchMethodException {
+        long userId = 100_000_000L;
+        user = new BenchUser(userId, new BenchState("state7"), Fixtures.LANG_CODE);
+        switch (filter) {
+            case COMMAND:
+                update = Fixtures.command(userId, "/start");
+                break;
+            case CALLBACK_PREFIX:
+                update = Fixtures.callback(userId, "order:42:cancel");
+                break;
+            case REGEX:
+                update = Fixtures.message(userId, "r1:123456");
+                break;
+            case LOCALIZED:
+                update = Fixtures.message(userId, new BenchLocaleService().getText(Fixtures.LANG_CODE, "menu.main"));
+                break;
+            default:
+                update = Fixtures.message(userId, "Привет! Как дела?");
+        }
+
+        Method method = SampleHandlers.class.getMethod(filter.annotatedMethod);
+        Annotation annotation = method.getAnnotations()[0];
+        handler = new MethodHandler(new SampleHandlers(), handlerMethod(), annotation, new BenchLocaleService());
+        if (!handler.matches(update, user)) {
+            throw new IllegalStateException(filter + " update does not match its handler");
+        }
+    }
+
+    @Benchmark
+    public boolean matches() {
+        return handler.matches(update, user);
+    }
+
+    private static Method handlerMethod() throws NoSuchMethodException {
+        return SampleHandlers.class.getMethod("handle", Update.class, BenchUser.class);
+    }
+
+    public static class SampleHandlers {
+
+        public void handle(Update update, BenchUser user) {
+            Sink.hit(0);
+        }
+
+        @CommandHandler("/start")
+        public void command() {
+        }
+
+        @CallbackQueryHandler(value = "order:", startsWith = true)
+        public void callbackPrefix() {
+        }
+
+        @MessageHandler(regex = "^r\\d+:\\d+$")
+        public void regex() {
+        }
+
+        @MessageHandler(localizedValueKey = "menu.main")
+        public void localized() {
+        }
+
+        @MessageHandler(requiredStates = {"state1", "state3", "state7"})
+        public void states() {
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.itburger.telegramupdatesdispatcher.benchmarks;
+
+import org.itburger.telegramupdatesdispatcher.MethodHandler;
+import org.itburger.telegramupdatesdispatcher.TelegramUpdateDispatcher;
+import org.itburger.telegramupdatesdispatcher.models.DispatchContext;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that the routing indexes pick the same handler as a linear walk over
+ * {@link TelegramUpdateDispatcher#getHandlers()} with {@link MethodHandler#matches}, for the updates
+ * of every scenario and a message without text, sent by an unknown user, a user without state and users
+ * in each state.
+ */
+final class RoutingParity {
+
+    private static final int STATES = 80;
+
+    private RoutingParity() {
+    }
+
+    static void check(TelegramUpdateDispatcher<BenchUser> dispatcher, int handlerCount) {
+        List<Update> updates = new ArrayList<>();
+        for (Fixtures.Scenario scenario : Fixtures.Scenario.values()) {
+            updates.add(Fixtures.update(scenario, handlerCount));
+        }
+        updates.add(Fixtures.location(1L));
+
+        List<BenchUser> users = new ArrayList<>();
+        users.add(null);
+        users.add(new BenchUser(1L, null, Fixtures.LANG_CODE));
+        for (int i = 0; i < STATES; i++) {
+            users.add(new BenchUser(1L, new BenchState("state" + i), Fixtures.LANG_CODE));
+        }
+
+        for (Update update : updates) {
+            for (BenchUser user : users) {
+                Sink.hit(Sink.NONE);
+                dispatcher.dispatch(new DispatchContext(update), user);
+                int expected = linear(dispatcher, new DispatchContext(update), user);
+                if (Sink.last() != expected) {
+                    throw new IllegalStateException("Update " + update.getUpdateId() + " of " + describe(user)
+                            + " reached handler " + Sink.last() + ", linear matching picks " + expected);
+                }
+            }
+        }
+    }
+
+    private static String describe(BenchUser user) {
+        if (user == null) return "unknown user";
+        return user.getState() != null ? "user in state " + user.getState().getId() : "user without state";
+    }
+
+    private static int linear(TelegramUpdateDispatcher<BenchUser> dispatcher, DispatchContext context, BenchUser user) {
+        for (MethodHandler handler : dispatcher.getHandlers()) {
+            if (handler.getKind() == context.getKind() && handler.matches(context, user)) {
+                // Синтетические обработчики называются h<номер>
+                return Integer.parseInt(handler.getMethod().getName().substring(1));
+            }
+        }
+        return Sink.NONE;
+    }
+}
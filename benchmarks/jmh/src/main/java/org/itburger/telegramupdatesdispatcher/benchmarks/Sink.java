@@ -0,0 +1,21 @@
+package org.itburger.telegramupdatesdispatcher.benchmarks;
+
+/**
+ * Called by every synthetic handler, so the benchmark can check which handler an update reached.
+ */
+public final class Sink {
+    public static final int NONE = Integer.MIN_VALUE;
+
+    private static int last = NONE;
+
+    private Sink() {
+    }
+
+    public static void hit(int handler) {
+        last = handler;
+    }
+
+    public static int last() {
+        return last;
+    }
+}
@@ -0,0 +1,35 @@
+package org.itburger.telegramupdatesdispatcher.benchmarks;
+
+import org.itburger.telegramupdatesdispatcher.TelegramUpdateDispatcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction of {@link TelegramUpdateDispatcher}: handler discovery, registration, sorting and route building.
+ * Handlers are always found by the Reflections classpath scan; {@code registry} also loads the compile-time
+ * registries of the handler packages and binds their invokers, {@code scan} hides them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StartupBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int handlerCount;
+
+    @Param({"registry", "scan"})
+    public String discovery;
+
+    private final InMemoryUserService users = new InMemoryUserService();
+
+    @Benchmark
+    public TelegramUpdateDispatcher<BenchUser> register() {
+        return "scan".equals(discovery)
+                ? Dispatchers.createByScan(users, handlerCount)
+                : Dispatchers.create(users, handlerCount);
+    }
+}
@@ -0,0 +1,137 @@
+package org.itburger.telegramupdatesdispatcher;
+
+import lombok.extern.slf4j.Slf4j;
+import org.itburger.telegramupdatesdispatcher.models.DispatchContext;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.message.Message;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Collects the updates of a media group ({@code media_group_id}) before the user lookup,
+ * so the whole album is looked up, passed through middlewares and handled once.
+ * <p>
+ * A group is dispatched when it reaches {@link #MAX_ALBUM_SIZE} updates, or when the window since its first
+ * update has passed. The number of groups being collected is capped: a new group beyond the cap
+ * dispatches the oldest one early. Updates put into a group complete at once; the album is dispatched
+ * later on the executor, or on the thread adding the last update of a full group.
+ */
+@Slf4j
+final class AlbumAggregator {
+
+    // Telegram не присылает альбомы больше 10 элементов
+    static final int MAX_ALBUM_SIZE = 10;
+
+    private static final CompletionStage<Void> COMPLETED = CompletableFuture.completedStage(null);
+    private static final Comparator<Update> BY_MESSAGE_ID = Comparator.comparing(u -> u.getMessage().getMessageId());
+
+    private final long windowNanos;
+    private final int maxPendingAlbums;
+    private final Executor executor;
+    private final Function<List<Update>, CompletionStage<Void>> dispatcher;
+    // Собираемые альбомы в порядке появления первого элемента
+    private final LinkedHashMap<String, List<Update>> pending = new LinkedHashMap<>();
+
+    AlbumAggregator(long windowNanos, int maxPendingAlbums, Executor executor,
+                    Function<List<Update>, CompletionStage<Void>> dispatcher) {
+        if (windowNanos <= 0) {
+            throw new IllegalArgumentException("Album window must be positive");
+        }
+        if (maxPendingAlbums < 1) {
+            throw new IllegalArgumentException("maxPendingAlbums must be positive");
+        }
+        this.windowNanos = windowNanos;
+        this.maxPendingAlbums = maxPendingAlbums;
+        this.executor = executor;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * @return whether the update is a part of a media group
+     */
+    static boolean isAlbumPart(DispatchContext context) {
+        if (context.isAlbum() || context.getKind() == null) return false;
+        switch (context.getKind()) {
+            case PHOTO:
+            case VIDEO:
+            case DOCUMENT:
+            case AUDIO:
+                return context.getUpdate().getMessage().getMediaGroupId() != null;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param context update for which {@link #isAlbumPart(DispatchContext)} holds
+     * @return stage of the album dispatch if the update completed its group, otherwise a completed stage
+     */
+    CompletionStage<Void> add(DispatchContext context) {
+        Message message = context.getUpdate().getMessage();
+        String key = message.getChatId() + ":" + message.getMediaGroupId();
+        List<Update> evicted = null;
+        List<Update> complete = null;
+        List<Update> created = null;
+
+        synchronized (pending) {
+            List<Update> album = pending.get(key);
+            if (album == null) {
+                if (pending.size() >= maxPendingAlbums) {
+                    Iterator<List<Update>> oldest = pending.values().iterator();
+                    evicted = oldest.next();
+                    oldest.remove();
+                }
+                album = new ArrayList<>(MAX_ALBUM_SIZE);
+                pending.put(key, album);
+                created = album;
+            }
+            album.add(context.getUpdate());
+            if (album.size() >= MAX_ALBUM_SIZE) {
+                pending.remove(key);
+                complete = album;
+            }
+        }
+
+        if (evicted != null) {
+            List<Update> album = evicted;
+            log.debug("Too many albums are being collected, dispatching the oldest one early");
+            executor.execute(() -> dispatchDetached(album));
+        }
+        if (complete != null) return dispatch(complete);
+        if (created != null) {
+            List<Update> album = created;
+            CompletableFuture.delayedExecutor(windowNanos, TimeUnit.NANOSECONDS, executor)
+                    .execute(() -> expire(key, album));
+        }
+        return COMPLETED;
+    }
+
+    private void expire(String key, List<Update> album) {
+        synchronized (pending) {
+            // Альбом уже отправлен целиком или досрочно
+            if (pending.get(key) != album) return;
+            pending.remove(key);
+        }
+        dispatchDetached(album);
+    }
+
+    private void dispatchDetached(List<Update> album) {
+        dispatch(album).whenComplete((result, error) -> {
+            if (error != null) log.error("Failed to dispatch album", error);
+        });
+    }
+
+    private CompletionStage<Void> dispatch(List<Update> album) {
+        album.sort(BY_MESSAGE_ID);
+        try {
+            return dispatcher.apply(album);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
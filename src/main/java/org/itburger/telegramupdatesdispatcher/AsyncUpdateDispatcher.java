@@ -0,0 +1,252 @@
+package org.itburger.telegramupdatesdispatcher;
+
+import lombok.extern.slf4j.Slf4j;
+import org.itburger.telegramupdatesdispatcher.generics.AbstractBotUser;
+import org.itburger.telegramupdatesdispatcher.models.DispatchContext;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opt-in asynchronous front end of {@link TelegramUpdateDispatcher}.
+ * <p>
+ * Every update is put into a serial lane keyed by the user id (or the chat id, if the update has no user),
+ * so updates of one user are dispatched strictly in the order they were submitted, while different users
+ * are processed in parallel. Each lane is drained by one task of the executor, by default a virtual thread.
+ * Middlewares and handlers run inside the lane exactly as they would in {@link TelegramUpdateDispatcher#dispatch(Update)}.
+ * When an asynchronous middleware or handler has not finished yet, the lane does not block its thread:
+ * the next update of the lane is dispatched from a new task once the stage completes.
+ * <p>
+ * Parts of media groups collected for {@link org.itburger.telegramupdatesdispatcher.annotations.AlbumHandler
+ * album handlers} are the exception: a part leaves its lane at once, and the album is dispatched later outside
+ * the lanes, so a later update of the same user may be handled before the album. Waiting in the lane would keep
+ * the remaining parts of the album from being collected.
+ * <p>
+ * The number of lanes being drained at the same time is capped; when the cap is reached,
+ * {@link #submit(Update)} blocks the caller until a lane finishes, which pushes back on the polling loop.
+ */
+@Slf4j
+public class AsyncUpdateDispatcher<U extends AbstractBotUser> implements AutoCloseable {
+
+    private final TelegramUpdateDispatcher<U> dispatcher;
+    private final ExecutorService executor;
+    // Чужой executor не останавливается, им может пользоваться кто-то ещё
+    private final boolean ownsExecutor;
+    private final Semaphore lanePermits;
+    private final ConcurrentHashMap<Long, Lane> lanes = new ConcurrentHashMap<>();
+    private final AtomicInteger activeLanes = new AtomicInteger();
+    private volatile boolean shutdown;
+
+    public AsyncUpdateDispatcher(TelegramUpdateDispatcher<U> dispatcher, int maxInFlightLanes) {
+        this(dispatcher, maxInFlightLanes, Executors.newVirtualThreadPerTaskExecutor(), true);
+    }
+
+    /**
+     * @param executor runs the lanes; it stays owned by the caller and is not shut down by
+     *                 {@link #awaitTermination(Duration)} or {@link #close()}
+     */
+    public AsyncUpdateDispatcher(TelegramUpdateDispatcher<U> dispatcher, int maxInFlightLanes, ExecutorService executor) {
+        this(dispatcher, maxInFlightLanes, executor, false);
+    }
+
+    private AsyncUpdateDispatcher(TelegramUpdateDispatcher<U> dispatcher, int maxInFlightLanes, ExecutorService executor,
+                                  boolean ownsExecutor) {
+        if (maxInFlightLanes < 1) {
+            throw new IllegalArgumentException("maxInFlightLanes must be positive");
+        }
+        this.dispatcher = dispatcher;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.lanePermits = new Semaphore(maxInFlightLanes);
+    }
+
+    /**
+     * Queues the update into the lane of its user.
+     *
+     * @throws RejectedExecutionException if {@link #shutdown()} has been called
+     */
+    public void submit(Update update) {
+        if (shutdown) {
+            throw new RejectedExecutionException("AsyncUpdateDispatcher is shut down");
+        }
+
+        DispatchContext context = new DispatchContext(update);
+        Long key = laneKey(context);
+        if (key == null) {
+            Lane lane = new Lane();
+            lane.queue.add(context);
+            lane.running = true;
+            activeLanes.incrementAndGet();
+            start(null, lane);
+            return;
+        }
+
+        while (true) {
+            Lane lane = lanes.computeIfAbsent(key, k -> new Lane());
+            synchronized (lane) {
+                if (lane.retired) continue;
+                lane.queue.add(context);
+                if (lane.running) return;
+                lane.running = true;
+                // Линия учитывается вместе с пометкой running, иначе awaitTermination может увидеть 0 до её запуска
+                activeLanes.incrementAndGet();
+            }
+            start(key, lane);
+            return;
+        }
+    }
+
+    /**
+     * Stops accepting updates. Updates already submitted are still dispatched.
+     */
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    /**
+     * Waits until every submitted update has been dispatched, then shuts the executor down
+     * unless it was passed to the constructor.
+     *
+     * @return {@code false} if the timeout elapsed before all lanes were drained
+     */
+    public boolean awaitTermination(Duration timeout) throws InterruptedException {
+        long remaining = timeout.toNanos();
+        synchronized (activeLanes) {
+            while (activeLanes.get() > 0) {
+                if (remaining <= 0) return false;
+                long start = System.nanoTime();
+                TimeUnit.NANOSECONDS.timedWait(activeLanes, remaining);
+                remaining -= System.nanoTime() - start;
+            }
+        }
+        if (ownsExecutor) executor.shutdown();
+        return true;
+    }
+
+    /**
+     * {@link #shutdown()} followed by an unbounded {@link #awaitTermination(Duration)}.
+     */
+    @Override
+    public void close() {
+        shutdown();
+        try {
+            awaitTermination(Duration.ofNanos(Long.MAX_VALUE));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return number of lanes that have queued or running updates
+     */
+    public int getActiveLanes() {
+        return activeLanes.get();
+    }
+
+    private static Long laneKey(DispatchContext context) {
+        Long userId = context.getUserId();
+        return userId != null ? userId : context.getChatId();
+    }
+
+    private void start(Long key, Lane lane) {
+        lanePermits.acquireUninterruptibly();
+        try {
+            executor.execute(() -> drain(key, lane));
+        } catch (RejectedExecutionException e) {
+            lanePermits.release();
+            int dropped = lane.abandon(key);
+            finishLane();
+            log.error("Executor rejected lane {}, {} update(s) dropped", key, dropped, e);
+        }
+    }
+
+    private void drain(Long key, Lane lane) {
+        boolean completed = false;
+        boolean suspended = false;
+        try {
+            DispatchContext context;
+            while ((context = lane.poll(key)) != null) {
+                CompletableFuture<Void> stage;
+                try {
+                    stage = dispatcher.dispatchAsync(context).toCompletableFuture();
+                } catch (Exception e) {
+                    log.error(e.getMessage(), e);
+                    continue;
+                }
+                if (!stage.isDone()) {
+                    // Линия продолжится после завершения обновления, порядок обновлений пользователя сохраняется
+                    suspended = true;
+                    stage.whenComplete((result, error) -> {
+                        if (error != null) log.error(error.getMessage(), error);
+                        resume(key, lane);
+                    });
+                    break;
+                }
+                if (stage.isCompletedExceptionally()) {
+                    stage.exceptionally(error -> {
+                        log.error(error.getMessage(), error);
+                        return null;
+                    });
+                }
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                int dropped = lane.abandon(key);
+                log.error("Lane {} terminated abnormally, {} update(s) dropped", key, dropped);
+            }
+            if (!completed || !suspended) {
+                lanePermits.release();
+                finishLane();
+            }
+        }
+    }
+
+    private void resume(Long key, Lane lane) {
+        try {
+            executor.execute(() -> drain(key, lane));
+        } catch (RejectedExecutionException e) {
+            int dropped = lane.abandon(key);
+            lanePermits.release();
+            finishLane();
+            log.error("Executor rejected lane {}, {} update(s) dropped", key, dropped, e);
+        }
+    }
+
+    private void finishLane() {
+        if (activeLanes.decrementAndGet() == 0) {
+            synchronized (activeLanes) {
+                activeLanes.notifyAll();
+            }
+        }
+    }
+
+    private final class Lane {
+        private final Queue<DispatchContext> queue = new ArrayDeque<>();
+        private boolean running;
+        private boolean retired;
+
+        private synchronized DispatchContext poll(Long key) {
+            DispatchContext context = queue.poll();
+            if (context == null) retire(key);
+            return context;
+        }
+
+        private synchronized int abandon(Long key) {
+            int dropped = queue.size();
+            queue.clear();
+            retire(key);
+            return dropped;
+        }
+
+        private void retire(Long key) {
+            running = false;
+            retired = true;
+            if (key != null) lanes.remove(key, this);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package org.itburger.telegramupdatesdispatcher;
+
+import org.itburger.telegramupdatesdispatcher.exceptions.InvalidTemplateException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiled {@code template()} of a {@link org.itburger.telegramupdatesdispatcher.annotations.CallbackQueryHandler},
+ * e.g. {@code "order:{id:long}:{action}"}.
+ * <p>
+ * A template is a sequence of literals and parameters {@code {name}} or {@code {name:type}}, where type is
+ * {@code string} (default), {@code long} or {@code int}. Two parameters must be separated by a literal.
+ * Callback data is walked once from left to right with {@link String#startsWith(String, int)} and
+ * {@link String#indexOf(String, int)}: a parameter ends at the first occurrence of the literal following it.
+ * No regex is involved, and {@link #matches(String)} allocates nothing.
+ */
+final class CallbackTemplate {
+
+    enum Type {
+        STRING(String.class, String.class),
+        LONG(long.class, Long.class),
+        INT(int.class, Integer.class);
+
+        private final Class<?> primitive;
+        private final Class<?> boxed;
+
+        Type(Class<?> primitive, Class<?> boxed) {
+            this.primitive = primitive;
+            this.boxed = boxed;
+        }
+
+        boolean accepts(Class<?> parameterType) {
+            return parameterType == primitive || parameterType == boxed;
+        }
+    }
+
+    private final String source;
+    // literals[i] стоит перед параметром i, последний литерал завершает шаблон и может быть пустым
+    private final String[] literals;
+    private final String[] names;
+    private final Type[] types;
+
+    private CallbackTemplate(String source, String[] literals, String[] names, Type[] types) {
+        this.source = source;
+        this.literals = literals;
+        this.names = names;
+        this.types = types;
+    }
+
+    /**
+     * @throws InvalidTemplateException if the template is malformed
+     */
+    static CallbackTemplate compile(String template) {
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<Type> types = new ArrayList<>();
+
+        int pos = 0;
+        while (true) {
+            int open = template.indexOf('{', pos);
+            String literal = template.substring(pos, open < 0 ? template.length() : open);
+            if (literal.indexOf('}') >= 0) {
+                throw new InvalidTemplateException(template, "unexpected '}'");
+            }
+            if (open < 0) {
+                literals.add(literal);
+                break;
+            }
+            if (literal.isEmpty() && !names.isEmpty()) {
+                throw new InvalidTemplateException(template, "parameters {" + names.get(names.size() - 1)
+                        + "} and the next one must be separated by a literal");
+            }
+            literals.add(literal);
+
+            int close = template.indexOf('}', open);
+            if (close < 0) {
+                throw new InvalidTemplateException(template, "unclosed '{'");
+            }
+            String parameter = template.substring(open + 1, close);
+            int colon = parameter.indexOf(':');
+            String name = colon < 0 ? parameter : parameter.substring(0, colon);
+            if (name.isEmpty() || name.indexOf('{') >= 0) {
+                throw new InvalidTemplateException(template, "invalid parameter {" + parameter + "}");
+            }
+            if (names.contains(name)) {
+                throw new InvalidTemplateException(template, "duplicate parameter {" + name + "}");
+            }
+            names.add(name);
+            types.add(colon < 0 ? Type.STRING : type(template, parameter.substring(colon + 1)));
+            pos = close + 1;
+        }
+
+        return new CallbackTemplate(template, literals.toArray(new String[0]), names.toArray(new String[0]),
+                types.toArray(new Type[0]));
+    }
+
+    private static Type type(String template, String name) {
+        switch (name) {
+            case "string":
+                return Type.STRING;
+            case "long":
+                return Type.LONG;
+            case "int":
+                return Type.INT;
+            default:
+                throw new InvalidTemplateException(template, "unknown parameter type '" + name
+                        + "', expected string, long or int");
+        }
+    }
+
+    /**
+     * @return literal before the first parameter, callback data of every match starts with it
+     */
+    String getPrefix() {
+        return literals[0];
+    }
+
+    int getParameterCount() {
+        return names.length;
+    }
+
+    /**
+     * @return whether handler parameters starting at {@code offset} take the template parameters in order
+     */
+    boolean accepts(Class<?>[] parameterTypes, int offset) {
+        if (parameterTypes.length - offset != types.length) return false;
+        for (int i = 0; i < types.length; i++) {
+            if (!types[i].accepts(parameterTypes[offset + i])) return false;
+        }
+        return true;
+    }
+
+    String describeParameters() {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) result.append(", ");
+            result.append(types[i].primitive.getSimpleName()).append(' ').append(names[i]);
+        }
+        return result.toString();
+    }
+
+    boolean matches(String data) {
+        return match(data, null, 0);
+    }
+
+    /**
+     * Stores parameter values in template order, boxed for {@code long} and {@code int}, starting at {@code offset}.
+     *
+     * @return {@code false} if the data does not match
+     */
+    boolean extract(String data, Object[] values, int offset) {
+        return match(data, values, offset);
+    }
+
+    private boolean match(String data, Object[] values, int offset) {
+        if (!data.startsWith(literals[0])) return false;
+        int pos = literals[0].length();
+        int last = names.length - 1;
+
+        for (int i = 0; i <= last; i++) {
+            String next = literals[i + 1];
+            int end;
+            if (i < last) {
+                end = data.indexOf(next, pos);
+            } else {
+                // Последний параметр занимает всё до завершающего литерала
+                end = data.length() - next.length();
+                if (end < pos || !data.startsWith(next, end)) end = -1;
+            }
+            if (end <= pos) return false;
+            if (!store(data, pos, end, i, values, offset)) return false;
+            pos = end + next.length();
+        }
+        return pos == data.length();
+    }
+
+    private boolean store(String data, int from, int to, int index, Object[] values, int offset) {
+        switch (types[index]) {
+            case LONG:
+                if (!isInteger(data, from, to, 19)) return false;
+                try {
+                    long value = Long.parseLong(data, from, to, 10);
+                    if (values != null) values[offset + index] = value;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+                return true;
+            case INT:
+                if (!isInteger(data, from, to, 10)) return false;
+                try {
+                    int value = Integer.parseInt(data, from, to, 10);
+                    if (values != null) values[offset + index] = value;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+                return true;
+            default:
+                if (values != null) values[offset + index] = data.substring(from, to);
+                return true;
+        }
+    }
+
+    // Предварительная проверка, чтобы не бросать NumberFormatException на каждом несовпадении
+    private static boolean isInteger(String data, int from, int to, int maxDigits) {
+        if (data.charAt(from) == '-') from++;
+        if (from == to || to - from > maxDigits) return false;
+        for (int i = from; i < to; i++) {
+            char c = data.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
@@ -0,0 +1,190 @@
+package org.itburger.telegramupdatesdispatcher;
+
+import lombok.extern.slf4j.Slf4j;
+import org.itburger.telegramupdatesdispatcher.generics.AbstractBotUser;
+import org.itburger.telegramupdatesdispatcher.generics.HandlerInvoker;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+
+/**
+ * Binds handler methods to {@link HandlerInvoker HandlerInvokers} once at registration time.
+ * <p>
+ * The preferred invoker is a class spun by {@link LambdaMetafactory} that calls the handler method directly,
+ * so the JIT can inline it like an ordinary call. When the handler class cannot be accessed that way
+ * (e.g. it lives in another module or class loader), a bound {@link MethodHandle} is used instead.
+ */
+@Slf4j
+final class HandlerInvokers {
+
+    private static final MethodType UPDATE_ONLY = MethodType.methodType(void.class, Update.class);
+    private static final MethodType UPDATE_AND_USER = MethodType.methodType(void.class, Update.class, AbstractBotUser.class);
+    private static final MethodType INVOKER = UPDATE_AND_USER.changeReturnType(Object.class);
+    private static final MethodType ARGUMENTS_INVOKER = INVOKER.appendParameterTypes(Object[].class);
+
+    private HandlerInvokers() {
+    }
+
+    /**
+     * @param method handler method with an {@code (Update)} or {@code (Update, User)} signature
+     */
+    static HandlerInvoker create(Object instance, Method method) {
+        MethodHandles.Lookup lookup = lookupFor(method);
+        MethodHandle target = unreflect(lookup, method);
+
+        if (lookup != null) {
+            try {
+                return metafactory(lookup, target, instance, method);
+            } catch (Throwable e) {
+                log.debug("LambdaMetafactory is not applicable to {}, falling back to MethodHandle", method, e);
+            }
+        }
+        return methodHandle(target, instance, method);
+    }
+
+    /**
+     * Binds a handler method taking callback template parameters after {@code Update} and the optional user.
+     * The parameters are passed as an array and unboxed by the method handle, no reflection is involved.
+     *
+     * @param fixedParameters number of leading {@code Update} and user parameters, 1 or 2
+     */
+    static ArgumentsInvoker createWithArguments(Object instance, Method method, int fixedParameters) {
+        MethodHandle target = unreflect(lookupFor(method), method);
+        MethodHandle handle = Modifier.isStatic(method.getModifiers()) ? target : target.bindTo(instance);
+        if (fixedParameters == 1) {
+            handle = MethodHandles.dropArguments(handle, 1, AbstractBotUser.class);
+        }
+        MethodHandle bound = handle.asSpreader(Object[].class, method.getParameterCount() - fixedParameters)
+                .asType(ARGUMENTS_INVOKER);
+        return (update, user, arguments) -> {
+            try {
+                return (Object) bound.invokeExact(update, user, arguments);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new UndeclaredThrowableException(e);
+            }
+        };
+    }
+
+    private static MethodHandles.Lookup lookupFor(Method method) {
+        try {
+            return MethodHandles.privateLookupIn(method.getDeclaringClass(), MethodHandles.lookup());
+        } catch (IllegalAccessException | SecurityException e) {
+            return null;
+        }
+    }
+
+    private static MethodHandle unreflect(MethodHandles.Lookup lookup, Method method) {
+        try {
+            if (lookup != null) return lookup.unreflect(method);
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        } catch (IllegalAccessException | RuntimeException e) {
+            throw new IllegalArgumentException("Handler method " + method + " is not accessible", e);
+        }
+    }
+
+    private static HandlerInvoker metafactory(MethodHandles.Lookup lookup, MethodHandle target,
+                                              Object instance, Method method) throws Throwable {
+        boolean isStatic = Modifier.isStatic(method.getModifiers());
+        boolean isVoid = method.getReturnType() == void.class;
+        Class<?>[] params = method.getParameterTypes();
+        MethodType captured = isStatic
+                ? MethodType.methodType(HandlerInvoker.class)
+                : MethodType.methodType(HandlerInvoker.class, method.getDeclaringClass());
+        MethodType instantiated = MethodType.methodType(method.getReturnType(), params);
+
+        // LambdaMetafactory не приводит void к Object, поэтому void-методы получают свой функциональный интерфейс
+        if (params.length == 2 && !isVoid) {
+            CallSite site = LambdaMetafactory.metafactory(lookup, "invoke", captured,
+                    INVOKER, target, instantiated);
+            return (HandlerInvoker) capture(site, isStatic, instance);
+        }
+        if (params.length == 2) {
+            CallSite site = LambdaMetafactory.metafactory(lookup, "invoke",
+                    captured.changeReturnType(VoidInvoker.class), UPDATE_AND_USER, target, instantiated);
+            VoidInvoker invoker = (VoidInvoker) capture(site, isStatic, instance);
+            return (update, user) -> {
+                invoker.invoke(update, user);
+                return null;
+            };
+        }
+        if (!isVoid) {
+            CallSite site = LambdaMetafactory.metafactory(lookup, "invoke",
+                    captured.changeReturnType(UpdateOnlyFunction.class), UPDATE_ONLY.changeReturnType(Object.class),
+                    target, instantiated);
+            UpdateOnlyFunction invoker = (UpdateOnlyFunction) capture(site, isStatic, instance);
+            return (update, user) -> invoker.invoke(update);
+        }
+
+        CallSite site = LambdaMetafactory.metafactory(lookup, "invoke",
+                captured.changeReturnType(UpdateOnlyInvoker.class), UPDATE_ONLY, target, UPDATE_ONLY);
+        UpdateOnlyInvoker invoker = (UpdateOnlyInvoker) capture(site, isStatic, instance);
+        return (update, user) -> {
+            invoker.invoke(update);
+            return null;
+        };
+    }
+
+    private static Object capture(CallSite site, boolean isStatic, Object instance) throws Throwable {
+        return isStatic ? site.getTarget().invoke() : site.getTarget().invoke(instance);
+    }
+
+    private static HandlerInvoker methodHandle(MethodHandle target, Object instance, Method method) {
+        MethodHandle handle = Modifier.isStatic(method.getModifiers()) ? target : target.bindTo(instance);
+        if (method.getParameterCount() == 1) {
+            handle = MethodHandles.dropArguments(handle, 1, AbstractBotUser.class);
+        }
+        // asType возвращает null вместо результата void-метода
+        MethodHandle bound = handle.asType(INVOKER);
+        return (update, user) -> {
+            try {
+                return (Object) bound.invokeExact(update, user);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new UndeclaredThrowableException(e);
+            }
+        };
+    }
+
+    /**
+     * Functional shape of {@code void (Update)} handlers for {@link LambdaMetafactory}.
+     */
+    @FunctionalInterface
+    public interface UpdateOnlyInvoker {
+        void invoke(Update update) throws Exception;
+    }
+
+    /**
+     * Functional shape of {@code (Update)} handlers returning a value.
+     */
+    @FunctionalInterface
+    public interface UpdateOnlyFunction {
+        Object invoke(Update update) throws Exception;
+    }
+
+    /**
+     * Functional shape of {@code void (Update, User)} handlers.
+     */
+    @FunctionalInterface
+    public interface VoidInvoker {
+        void invoke(Update update, AbstractBotUser user) throws Exception;
+    }
+
+    /**
+     * Invoker of handler methods taking callback template parameters.
+     */
+    @FunctionalInterface
+    interface ArgumentsInvoker {
+        Object invoke(Update update, AbstractBotUser user, Object[] arguments) throws Exception;
+    }
+}
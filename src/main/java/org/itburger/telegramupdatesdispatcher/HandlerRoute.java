@@ -0,0 +1,273 @@
+package org.itburger.telegramupdatesdispatcher;
+
+import lombok.extern.slf4j.Slf4j;
+import org.itburger.telegramupdatesdispatcher.generics.AbstractBotUser;
+import org.itburger.telegramupdatesdispatcher.generics.LocaleService;
+import org.itburger.telegramupdatesdispatcher.generics.UserState;
+import org.itburger.telegramupdatesdispatcher.models.DispatchContext;
+import org.itburger.telegramupdatesdispatcher.models.HandlerKind;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Routing table for the handlers of one {@link HandlerKind}.
+ * <p>
+ * Handlers with a literal {@code value()} are indexed: exact values in a hash map, {@code startsWith} values
+ * in a {@link PrefixTrie}. Callback {@code template()} handlers share the trie, keyed by the literal before
+ * their first parameter. {@code localizedValueKey()} handlers are indexed per language: the first update
+ * in a language resolves all their keys through {@link LocaleService} into a reverse map from localized text
+ * to handlers, merged with the exact values. Everything else (regex, catch-all) stays in a linear fallback list,
+ * partitioned by {@code requiredStates()}: a user in state {@code S} only walks the handlers without required
+ * states plus the ones requiring {@code S}. A {@code MESSAGE} without text has nothing to look up, so
+ * {@code localizedValueKey()} handlers with required states, which match such a message the way catch-all
+ * state handlers do, join the fallback for it. Regex handlers whose required literal is absent from the text
+ * are skipped by a {@link RegexPrefilter}.
+ * <p>
+ * Candidates from all sources are merged by their position in the sorted handler list,
+ * so the first matching handler is the same one a full linear scan would find.
+ */
+@Slf4j
+final class HandlerRoute {
+
+    private static final int[] EMPTY = new int[0];
+    // Ключ для пользователей без кода языка, ConcurrentHashMap не допускает null
+    private static final String NO_LANGUAGE = "\u0000";
+
+    private final HandlerKind kind;
+    private final MethodHandler[] handlers;
+    private final LocaleService localeService;
+    private final Map<String, int[]> exact;
+    private final PrefixTrie prefixes;
+    private final int[] localized;
+    private final int[] fallback;
+    private final int[] statelessFallback;
+    private final Map<String, int[]> fallbackByState;
+    private final int[] textlessFallback;
+    private final Map<String, int[]> textlessFallbackByState;
+    private final RegexPrefilter regexPrefilter;
+    private final boolean indexed;
+    private final ConcurrentHashMap<String, Map<String, int[]>> exactByLanguage = new ConcurrentHashMap<>();
+
+    HandlerRoute(HandlerKind kind, List<MethodHandler> sortedHandlers, LocaleService localeService) {
+        this.kind = kind;
+        this.handlers = sortedHandlers.toArray(new MethodHandler[0]);
+        this.localeService = localeService;
+
+        Map<String, List<Integer>> exactBuilder = new HashMap<>();
+        PrefixTrie.Builder prefixBuilder = new PrefixTrie.Builder();
+        List<Integer> localizedBuilder = new ArrayList<>();
+        List<Integer> fallbackBuilder = new ArrayList<>();
+
+        for (int i = 0; i < handlers.length; i++) {
+            MatchPlan plan = handlers[i].getPlan();
+            if (isLocalized(plan)) {
+                localizedBuilder.add(i);
+            } else if (hasTemplatePrefix(plan)) {
+                // Шаблон индексируется по литералу до первого параметра и проверяется целиком при совпадении
+                prefixBuilder.add(plan.getTemplate().getPrefix(), i);
+            } else if (!isIndexable(plan)) {
+                fallbackBuilder.add(i);
+            } else if (plan.isStartsWith()) {
+                prefixBuilder.add(plan.getValue(), i);
+            } else {
+                exactBuilder.computeIfAbsent(plan.getValue(), k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        Map<String, int[]> exactIndex = new HashMap<>();
+        exactBuilder.forEach((value, ordinals) -> exactIndex.put(value, toArray(ordinals)));
+        this.exact = Map.copyOf(exactIndex);
+        this.prefixes = prefixBuilder.build();
+        this.localized = toArray(localizedBuilder);
+        this.fallback = toArray(fallbackBuilder);
+
+        List<Integer> statelessBuilder = new ArrayList<>();
+        Map<String, List<Integer>> byStateBuilder = new HashMap<>();
+        for (int ordinal : fallback) {
+            Set<String> states = handlers[ordinal].getPlan().getRequiredStates();
+            if (states.isEmpty()) {
+                statelessBuilder.add(ordinal);
+            } else {
+                for (String state : states) {
+                    byStateBuilder.computeIfAbsent(state, k -> new ArrayList<>()).add(ordinal);
+                }
+            }
+        }
+        this.statelessFallback = toArray(statelessBuilder);
+        Map<String, int[]> byState = new HashMap<>();
+        byStateBuilder.forEach((state, ordinals) -> byState.put(state, union(statelessFallback, toArray(ordinals))));
+        this.fallbackByState = Map.copyOf(byState);
+
+        // Пустое значение с requiredStates в MethodHandler.matchesText совпадает и без текста, в том числе у локализованных
+        List<Integer> textlessBuilder = new ArrayList<>();
+        Map<String, List<Integer>> textlessByStateBuilder = new HashMap<>();
+        for (int ordinal : localized) {
+            Set<String> states = handlers[ordinal].getPlan().getRequiredStates();
+            if (kind != HandlerKind.MESSAGE || states.isEmpty()) continue;
+            textlessBuilder.add(ordinal);
+            for (String state : states) {
+                textlessByStateBuilder.computeIfAbsent(state, k -> new ArrayList<>()).add(ordinal);
+            }
+        }
+        this.textlessFallback = union(fallback, toArray(textlessBuilder));
+        Map<String, int[]> textlessByState = new HashMap<>(fallbackByState);
+        textlessByStateBuilder.forEach((state, ordinals) -> textlessByState.put(state,
+                union(fallbackByState.getOrDefault(state, statelessFallback), toArray(ordinals))));
+        this.textlessFallbackByState = Map.copyOf(textlessByState);
+
+        this.regexPrefilter = RegexPrefilter.build(handlers);
+        this.indexed = !exact.isEmpty() || !prefixes.isEmpty() || localized.length != 0;
+    }
+
+    private boolean isIndexable(MatchPlan plan) {
+        switch (kind) {
+            case MESSAGE:
+            case COMMAND:
+            case CALLBACK_QUERY:
+                return plan.getStrategy() == MatchPlan.Strategy.VALUE && !plan.getValue().isEmpty();
+            default:
+                return false;
+        }
+    }
+
+    private boolean hasTemplatePrefix(MatchPlan plan) {
+        return plan.getStrategy() == MatchPlan.Strategy.TEMPLATE && !plan.getTemplate().getPrefix().isEmpty();
+    }
+
+    private boolean isLocalized(MatchPlan plan) {
+        return plan.getStrategy() == MatchPlan.Strategy.LOCALIZED && localeService != null;
+    }
+
+    /**
+     * @return first handler in priority order that matches the update, or {@code null}
+     */
+    MethodHandler select(DispatchContext context, AbstractBotUser user) {
+        int[] exactHits = EMPTY;
+        int[] prefixHits = EMPTY;
+        String text = null;
+        if (indexed || !regexPrefilter.isEmpty()) {
+            text = context.getText();
+        }
+        if (indexed && text != null) {
+            exactHits = exactIndex(user).getOrDefault(text, EMPTY);
+            prefixHits = prefixes.match(text);
+        }
+        int[] fallback = text == null && localized.length != 0 ? textlessFallbackFor(user) : fallbackFor(user);
+        // Литералы regex-обработчиков ищутся одним проходом, когда встретится первый из них
+        long[] literals = null;
+
+        // Трёхстороннее слияние по порядковому номеру обработчика
+        int e = 0, p = 0, f = 0;
+        while (e < exactHits.length || p < prefixHits.length || f < fallback.length) {
+            int next = Integer.MAX_VALUE;
+            if (e < exactHits.length) next = exactHits[e];
+            if (p < prefixHits.length && prefixHits[p] < next) next = prefixHits[p];
+            if (f < fallback.length && fallback[f] < next) next = fallback[f];
+
+            MethodHandler handler = handlers[next];
+            if (f < fallback.length && fallback[f] == next) {
+                f++;
+                if (text != null && regexPrefilter.isFiltered(next)) {
+                    if (literals == null) literals = regexPrefilter.scan(text);
+                    if (!regexPrefilter.mayMatch(literals, next)) continue;
+                }
+                if (matches(handler, context, user)) return handler;
+            } else {
+                // Текст уже совпал по индексу, остаётся проверить доступ и состояния
+                if (e < exactHits.length && exactHits[e] == next) e++;
+                else p++;
+                if (handler.matchesGuards(user) && matchesTemplate(handler, text)) return handler;
+            }
+        }
+        return null;
+    }
+
+    private int[] fallbackFor(AbstractBotUser user) {
+        // Для неизвестного пользователя состояния не проверяются
+        if (user == null) return fallback;
+        UserState state = user.getState();
+        String stateId = state != null ? state.getId() : null;
+        if (stateId == null) return statelessFallback;
+        return fallbackByState.getOrDefault(stateId, statelessFallback);
+    }
+
+    private int[] textlessFallbackFor(AbstractBotUser user) {
+        if (user == null) return textlessFallback;
+        UserState state = user.getState();
+        String stateId = state != null ? state.getId() : null;
+        if (stateId == null) return statelessFallback;
+        return textlessFallbackByState.getOrDefault(stateId, statelessFallback);
+    }
+
+    /**
+     * Drops the cached localized texts, they are resolved again on the next update of each language.
+     *
+     * @param langCode language to drop, or {@code null} for all languages
+     */
+    void invalidateLocalizedTexts(String langCode) {
+        if (langCode == null) {
+            exactByLanguage.clear();
+        } else {
+            exactByLanguage.remove(langCode);
+        }
+    }
+
+    private Map<String, int[]> exactIndex(AbstractBotUser user) {
+        // Без пользователя локализованные обработчики не совпадают
+        if (localized.length == 0 || user == null) return exact;
+        String langCode = user.getLangCode();
+        return exactByLanguage.computeIfAbsent(langCode == null ? NO_LANGUAGE : langCode,
+                k -> buildLanguageIndex(langCode));
+    }
+
+    private Map<String, int[]> buildLanguageIndex(String langCode) {
+        Map<String, int[]> index = new HashMap<>(exact);
+        for (int ordinal : localized) {
+            String key = handlers[ordinal].getPlan().getLocalizedValueKey();
+            String text;
+            try {
+                text = localeService.getText(langCode, key);
+            } catch (Exception e) {
+                log.error("Unable to resolve localized value '" + key + "' for language " + langCode, e);
+                continue;
+            }
+            if (text == null) continue;
+            index.merge(text, new int[]{ordinal}, HandlerRoute::union);
+        }
+        return Map.copyOf(index);
+    }
+
+    private static boolean matchesTemplate(MethodHandler handler, String text) {
+        CallbackTemplate template = handler.getPlan().getTemplate();
+        return template == null || template.matches(text);
+    }
+
+    private boolean matches(MethodHandler handler, DispatchContext context, AbstractBotUser user) {
+        try {
+            return handler.matches(context, user);
+        } catch (Exception e) {
+            log.error("Error while matching update against " + handler, e);
+            return false;
+        }
+    }
+
+    List<MethodHandler> getHandlers() {
+        return List.of(handlers);
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        int[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,163 @@
+package org.itburger.telegramupdatesdispatcher;
+
+import org.itburger.telegramupdatesdispatcher.exceptions.InvalidTemplateException;
+import org.itburger.telegramupdatesdispatcher.models.HandlerKind;
+
+import java.lang.annotation.Annotation;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Immutable view of handler annotation attributes, resolved once at registration time
+ * so that matching an update does not touch reflection.
+ */
+final class MatchPlan {
+
+    enum Strategy {
+        /** {@link HandlerKind#PRE_CHECKOUT_QUERY} and {@link HandlerKind#SUCCESSFUL_PAYMENT}: update type is enough */
+        UPDATE_TYPE,
+        /** Photo, video, voice, audio, document and album handlers: update type plus access and states */
+        MEDIA,
+        /** {@code template()} of callback query handlers, see {@link CallbackTemplate} */
+        TEMPLATE,
+        REGEX,
+        LOCALIZED,
+        VALUE
+    }
+
+    private final HandlerKind kind;
+    private final Strategy strategy;
+    private final Set<String> requiredStates;
+    private final String value;
+    private final String regex;
+    private final Pattern pattern;
+    private final CallbackTemplate template;
+    private final String localizedValueKey;
+    private final boolean startsWith;
+    private final boolean accessByUnknownUsers;
+
+    private MatchPlan(HandlerKind kind, Annotation annotation) {
+        this.kind = kind;
+        this.requiredStates = Set.copyOf(Arrays.asList(stringArrayAttribute(annotation, "requiredStates")));
+        this.value = stringAttribute(annotation, "value");
+        this.regex = stringAttribute(annotation, "regex");
+        this.localizedValueKey = stringAttribute(annotation, "localizedValueKey");
+        this.startsWith = booleanAttribute(annotation, "startsWith");
+        String templateSource = stringAttribute(annotation, "template");
+        this.template = templateSource.isEmpty() ? null : CallbackTemplate.compile(templateSource);
+        this.accessByUnknownUsers = booleanAttribute(annotation, "accessByUnknownUsers");
+        this.strategy = resolveStrategy();
+        this.pattern = strategy == Strategy.REGEX ? Pattern.compile(regex) : null;
+    }
+
+    /**
+     * @throws PatternSyntaxException if {@code regex()} of the annotation is not a valid regular expression
+     * @throws InvalidTemplateException if {@code template()} of the annotation is malformed
+     */
+    static MatchPlan compile(Annotation annotation) {
+        HandlerKind kind = HandlerKind.of(annotation);
+        if (kind == null) {
+            throw new IllegalArgumentException("Unsupported handler annotation: " + annotation.annotationType().getName());
+        }
+        return new MatchPlan(kind, annotation);
+    }
+
+    private Strategy resolveStrategy() {
+        switch (kind) {
+            case PRE_CHECKOUT_QUERY:
+            case SUCCESSFUL_PAYMENT:
+                return Strategy.UPDATE_TYPE;
+            case PHOTO:
+            case VIDEO:
+            case VOICE:
+            case AUDIO:
+            case DOCUMENT:
+            case ALBUM:
+                return Strategy.MEDIA;
+            default:
+                // Шаблон имеет приоритет, затем regex
+                if (template != null) return Strategy.TEMPLATE;
+                if (!regex.isEmpty()) return Strategy.REGEX;
+                if (!localizedValueKey.isEmpty()) return Strategy.LOCALIZED;
+                return Strategy.VALUE;
+        }
+    }
+
+    HandlerKind getKind() {
+        return kind;
+    }
+
+    Strategy getStrategy() {
+        return strategy;
+    }
+
+    Set<String> getRequiredStates() {
+        return requiredStates;
+    }
+
+    String getValue() {
+        return value;
+    }
+
+    String getRegex() {
+        return regex;
+    }
+
+    Pattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Full match of {@code text} against the precompiled {@code regex()}.
+     */
+    boolean matchesRegex(String text) {
+        // Без ThreadLocal: обновления обрабатываются на новых виртуальных потоках, и кэш на поток не окупается
+        return pattern.matcher(text).matches();
+    }
+
+    /**
+     * @return compiled {@code template()}, or {@code null} if the annotation has none
+     */
+    CallbackTemplate getTemplate() {
+        return template;
+    }
+
+    String getLocalizedValueKey() {
+        return localizedValueKey;
+    }
+
+    boolean isStartsWith() {
+        return startsWith;
+    }
+
+    boolean isAccessByUnknownUsers() {
+        return accessByUnknownUsers;
+    }
+
+    private static Object attribute(Annotation annotation, String name) {
+        try {
+            return annotation.annotationType().getMethod(name).invoke(annotation);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Unable to read " + name + " of " + annotation, e);
+        }
+    }
+
+    private static String stringAttribute(Annotation annotation, String name) {
+        Object val = attribute(annotation, name);
+        return val == null ? "" : val.toString();
+    }
+
+    private static String[] stringArrayAttribute(Annotation annotation, String name) {
+        Object val = attribute(annotation, name);
+        return val instanceof String[] ? (String[]) val : new String[0];
+    }
+
+    private static boolean booleanAttribute(Annotation annotation, String name) {
+        Object val = attribute(annotation, name);
+        return val instanceof Boolean && (Boolean) val;
+    }
+}
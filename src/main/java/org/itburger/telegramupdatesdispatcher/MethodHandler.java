@@ -1,180 +1,248 @@
 package org.itburger.telegramupdatesdispatcher;
 
-import org.itburger.telegramupdatesdispatcher.annotations.*;
+import org.itburger.telegramupdatesdispatcher.models.DispatchContext;
+import org.itburger.telegramupdatesdispatcher.models.HandlerKind;
+import org.telegram.telegrambots.meta.api.methods.botapimethods.BotApiMethod;
 import org.telegram.telegrambots.meta.api.objects.Update;
-import org.itburger.telegramupdatesdispatcher.annotations.*;
+import org.telegram.telegrambots.meta.api.objects.message.Message;
 import org.itburger.telegramupdatesdispatcher.generics.AbstractBotUser;
+import org.itburger.telegramupdatesdispatcher.generics.HandlerInvoker;
 import org.itburger.telegramupdatesdispatcher.generics.LocaleService;
 import org.itburger.telegramupdatesdispatcher.generics.UserState;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
-import java.util.Arrays;
-import java.util.regex.Pattern;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
 
 public class MethodHandler {
     private final Object instance;
     private final Method method;
     private final Annotation annotation;
     private final LocaleService localeService;
+    private final MatchPlan plan;
+    private final HandlerInvoker invoker;
+    // Только для обработчиков, принимающих DispatchContext, альбом или параметры шаблона
+    private final HandlerInvokers.ArgumentsInvoker argumentsInvoker;
+    private final int argumentCount;
+    private final boolean injectsContext;
+    private final boolean injectsAlbum;
+    private final String name;
 
     public MethodHandler(Object instance, Method method, Annotation annotation, LocaleService localeService) {
+        this(instance, method, annotation, localeService, null);
+    }
+
+    /**
+     * @param invoker precompiled invoker of the method, e.g. from a generated registry;
+     *                if {@code null}, one is bound at runtime. Ignored for methods taking {@link DispatchContext},
+     *                the album or template parameters, their invoker is always bound at runtime
+     */
+    public MethodHandler(Object instance, Method method, Annotation annotation, LocaleService localeService,
+                         HandlerInvoker invoker) {
         this.instance = instance;
         this.method = method;
         this.annotation = annotation;
         this.localeService = localeService;
+        this.plan = MatchPlan.compile(annotation);
+        this.name = method.getDeclaringClass().getName() + "#" + method.getName();
         validateMethodSignature();
+        validateReturnType();
         validateMethodAvailability();
+        Class<?>[] params = method.getParameterTypes();
+        int fixedParameters = fixedParameterCount(params);
+        this.argumentCount = params.length - fixedParameters;
+        this.injectsContext = params.length > fixedParameters && params[fixedParameters] == DispatchContext.class;
+        this.injectsAlbum = params.length > fixedParameters && isAlbumParameter(params.length - 1);
+        if (argumentCount > 0) {
+            this.invoker = null;
+            this.argumentsInvoker = HandlerInvokers.createWithArguments(instance, method, fixedParameters);
+        } else {
+            this.invoker = invoker != null ? invoker : HandlerInvokers.create(instance, method);
+            this.argumentsInvoker = null;
+        }
     }
 
     private void validateMethodSignature() {
         Class<?>[] params = method.getParameterTypes();
-        if (params.length == 1 && params[0].equals(Update.class)) return;
-        if (params.length == 2 && params[0].equals(Update.class)
-                && AbstractBotUser.class.isAssignableFrom(params[1])) return;
+        CallbackTemplate template = plan.getTemplate();
+        if (params.length > 0 && params[0].equals(Update.class)) {
+            int fixed = fixedParameterCount(params);
+            if (params.length > fixed && params[fixed] == DispatchContext.class) fixed++;
+            if (params.length > fixed && isAlbumParameter(fixed)) fixed++;
+            // Параметры шаблона можно не объявлять и разбирать данные самостоятельно
+            if (params.length == fixed) return;
+            if (template != null && template.accepts(params, fixed)) return;
+        }
 
-        throw new IllegalArgumentException("Handler method " + method + " must have signature: (Update) or (Update, User)");
+        String signature = "(Update) or (Update, User), optionally followed by DispatchContext";
+        if (plan.getKind() == HandlerKind.ALBUM) signature += " and List<Update> of the album";
+        if (template != null && template.getParameterCount() > 0) {
+            signature += " and template parameters (" + template.describeParameters() + ")";
+        }
+        throw new IllegalArgumentException("Handler method " + method + " must have signature: " + signature);
     }
 
-    private void validateMethodAvailability(){
-        if (!(!getStringValue("localizedValueKey").isEmpty() && localeService == null)) return;
-        throw new IllegalArgumentException("Handler method " + method + " must have LocaleService initialized.");
+    // List<Update> или List без параметра типа, только у обработчиков альбомов
+    private boolean isAlbumParameter(int index) {
+        if (plan.getKind() != HandlerKind.ALBUM || method.getParameterTypes()[index] != List.class) return false;
+        Type type = method.getGenericParameterTypes()[index];
+        return !(type instanceof ParameterizedType)
+                || ((ParameterizedType) type).getActualTypeArguments()[0] == Update.class;
     }
 
-    public boolean matches(Update update, AbstractBotUser user) {
-        try {
-
-            if (annotation instanceof PreCheckoutQueryHandler && update.hasPreCheckoutQuery()) return true;
-
-            if (annotation instanceof SuccessfulPaymentHandler && update.hasMessage() && update.getMessage().hasSuccessfulPayment()) return true;
-
-            String[] requiredStates = (String[]) annotation.annotationType()
-                    .getMethod("requiredStates")
-                    .invoke(annotation);
-
-            if (annotation instanceof PhotoHandler && update.getMessage() != null && update.getMessage().hasPhoto()){
-
-                if (!checkAccess(user)) return false;
-                if (!checkStates(user)) return false;
-                return true;
-
-            }
-
-            if (annotation instanceof VideoHandler && update.getMessage() != null && update.getMessage().hasVideo()){
-
-                if (!checkAccess(user)) return false;
-                if (!checkStates(user)) return false;
-                return true;
-
-            }
-
-            if (annotation instanceof VoiceHandler && update.getMessage() != null && update.getMessage().hasVoice()){
-
-                if (!checkAccess(user)) return false;
-                if (!checkStates(user)) return false;
-                return true;
-
-            }
-
-            if (annotation instanceof AudioHandler && update.getMessage() != null && update.getMessage().hasAudio()){
+    private static int fixedParameterCount(Class<?>[] params) {
+        return params.length > 1 && AbstractBotUser.class.isAssignableFrom(params[1]) ? 2 : 1;
+    }
 
-                if (!checkAccess(user)) return false;
-                if (!checkStates(user)) return false;
-                return true;
+    private void validateReturnType() {
+        Class<?> returnType = method.getReturnType();
+        if (returnType == void.class || CompletionStage.class.isAssignableFrom(returnType)) return;
+        if (BotApiMethod.class.isAssignableFrom(returnType)) return;
+        if (Collection.class.isAssignableFrom(returnType) && isMethodCollection(method.getGenericReturnType())) return;
 
-            }
+        throw new IllegalArgumentException("Handler method " + method
+                + " must return void, CompletionStage, BotApiMethod or a List of BotApiMethod");
+    }
 
-            if (annotation instanceof DocumentHandler && update.getMessage() != null && update.getMessage().hasDocument()){
+    // List<SendMessage>, List<BotApiMethod<?>>, List<? extends BotApiMethod<?>> и т.п.
+    private static boolean isMethodCollection(Type returnType) {
+        if (!(returnType instanceof ParameterizedType)) return false;
+        Type element = ((ParameterizedType) returnType).getActualTypeArguments()[0];
+        if (element instanceof WildcardType) element = ((WildcardType) element).getUpperBounds()[0];
+        if (element instanceof ParameterizedType) element = ((ParameterizedType) element).getRawType();
+        return element instanceof Class && BotApiMethod.class.isAssignableFrom((Class<?>) element);
+    }
 
-                if (!checkAccess(user)) return false;
-                if (!checkStates(user)) return false;
-                return true;
+    private void validateMethodAvailability(){
+        if (!(!plan.getLocalizedValueKey().isEmpty() && localeService == null)) return;
+        throw new IllegalArgumentException("Handler method " + method + " must have LocaleService initialized.");
+    }
 
-            }
+    public boolean matches(Update update, AbstractBotUser user) {
+        return matches(new DispatchContext(update), user);
+    }
 
-            String textToMatch = extractTextFromUpdate(update);
+    public boolean matches(DispatchContext context, AbstractBotUser user) {
+        // Обновление, направленное в обработчики этого вида, уже проверено на hasPhoto и т.п. при классификации
+        boolean routed = context.getKind() == plan.getKind();
+        switch (plan.getStrategy()) {
+            case UPDATE_TYPE:
+                return routed || hasUpdateType(context.getUpdate());
+            case MEDIA:
+                return (routed || hasMedia(context.getUpdate())) && checkAccess(user) && checkStates(user);
+            default:
+                return matchesText(textOf(context), user);
+        }
+    }
 
-            if (!checkAccess(user)) return false;
-            if (!checkStates(user)) return false;
+    private String textOf(DispatchContext context) {
+        return context.getKind() == plan.getKind() ? context.getText() : DispatchContext.textOf(plan.getKind(), context.getUpdate());
+    }
 
-            // Regex имеет приоритет
-            String regex = getStringValue("regex");
-            if (!regex.isEmpty() && textToMatch != null) {
-                return Pattern.matches(regex, textToMatch);
+    private boolean matchesText(String textToMatch, AbstractBotUser user) {
+        if (!checkAccess(user)) return false;
+        if (!checkStates(user)) return false;
+
+        if (textToMatch != null) {
+            switch (plan.getStrategy()) {
+                case TEMPLATE:
+                    return plan.getTemplate().matches(textToMatch);
+                case REGEX:
+                    return plan.matchesRegex(textToMatch);
+                case LOCALIZED:
+                    if (user == null) return false;
+                    String localizedValue = localeService.getText(user.getLangCode(), plan.getLocalizedValueKey());
+                    return textToMatch.equals(localizedValue);
+                default:
+                    break;
             }
+        }
 
-            String localizedValueKey = getStringValue("localizedValueKey");
-            if (!localizedValueKey.isEmpty() && textToMatch != null){
-                String localizedValue = localeService.getText(user.getLangCode(), localizedValueKey);
-                return textToMatch.equals(localizedValue);
-            }
+        // startsWith + value
+        String value = plan.getValue();
+        if (value.isEmpty() && plan.getKind() == HandlerKind.MESSAGE && !plan.getRequiredStates().isEmpty()) return true;
 
-            // startsWith + value
-            boolean startsWith = getBooleanValue("startsWith");
-            String value = getStringValue("value");
+        if (textToMatch == null) return false;
+        return plan.isStartsWith() ? textToMatch.startsWith(value) : textToMatch.equals(value);
+    }
 
-            if (value.isEmpty() && annotation instanceof MessageHandler && requiredStates.length != 0) return true;
+    private boolean hasUpdateType(Update update) {
+        if (plan.getKind() == HandlerKind.PRE_CHECKOUT_QUERY) return update.hasPreCheckoutQuery();
+        return update.hasMessage() && update.getMessage().hasSuccessfulPayment();
+    }
 
-            if (textToMatch == null) return false;
-            return startsWith ? textToMatch.startsWith(value) : textToMatch.equals(value);
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
+    private boolean hasMedia(Update update) {
+        Message message = update.getMessage();
+        if (message == null) return false;
+        switch (plan.getKind()) {
+            case PHOTO:
+                return message.hasPhoto();
+            case VIDEO:
+                return message.hasVideo();
+            case VOICE:
+                return message.hasVoice();
+            case AUDIO:
+                return message.hasAudio();
+            case DOCUMENT:
+                return message.hasDocument();
+            case ALBUM:
+                return message.getMediaGroupId() != null;
+            default:
+                return false;
         }
     }
 
-    private String extractTextFromUpdate(Update update) {
-        if (annotation instanceof MessageHandler || annotation instanceof CommandHandler) {
-            if (update.getMessage() != null && update.getMessage().getText() != null) {
-                return update.getMessage().getText();
-            }
-        } else if (annotation instanceof CallbackQueryHandler) {
-            if (update.getCallbackQuery() != null) {
-                return update.getCallbackQuery().getData();
-            }
-        } else if (annotation instanceof InlineQueryHandler) {
-            if (update.getInlineQuery() != null) {
-                return update.getInlineQuery().getQuery();
-            }
-        } else if (annotation instanceof BusinessMessageHandler || annotation instanceof BusinessCallbackQueryHandler) {
-            return ""; // Пока не реализовано
-        } else if (annotation instanceof DocumentHandler) {
-            if (update.getMessage() != null && update.getMessage().getDocument() != null) {
-                return update.getMessage().getDocument().getFileName();
-            }
-        } else {}
-        return null;
+    /**
+     * Access and state checks only, for handlers whose text was already matched by a routing index.
+     */
+    boolean matchesGuards(AbstractBotUser user) {
+        return checkAccess(user) && checkStates(user);
     }
 
-    private boolean checkAccess(AbstractBotUser user) throws Exception {
-        boolean accessByUnknownUsers = getBooleanValue("accessByUnknownUsers");
-        return user != null || accessByUnknownUsers;
+    private boolean checkAccess(AbstractBotUser user) {
+        return user != null || plan.isAccessByUnknownUsers();
     }
 
-    private boolean checkStates(AbstractBotUser user) throws Exception {
+    private boolean checkStates(AbstractBotUser user) {
         if (user == null) {
             return true;
         }
 
-        // Получаем список строк из аннотации
-        String[] requiredStates = (String[]) annotation.annotationType()
-                .getMethod("requiredStates")
-                .invoke(annotation);
-
-        if (requiredStates.length == 0) return true;
+        Set<String> requiredStates = plan.getRequiredStates();
+        if (requiredStates.isEmpty()) return true;
 
         UserState userState = user.getState();
         if (userState == null) return false;
 
         // Проверяем совпадение по строковому идентификатору
-        return Arrays.stream(requiredStates)
-                .anyMatch(id -> id.equals(userState.getId()));
+        String stateId = userState.getId();
+        return stateId != null && requiredStates.contains(stateId);
+    }
+
+    MatchPlan getPlan() {
+        return plan;
+    }
+
+    public HandlerKind getKind() {
+        return plan.getKind();
     }
 
     public Annotation getAnnotation(){
         return annotation;
     }
 
+    /**
+     * Reads an annotation attribute reflectively on every call.
+     *
+     * @deprecated attributes are resolved once at registration, read them from {@link #getAnnotation()} instead
+     */
+    @Deprecated
     public String getStringValue(String field) {
         try {
             Object val = annotation.annotationType().getMethod(field).invoke(annotation);
@@ -184,21 +252,46 @@ public class MethodHandler {
         }
     }
 
-    private boolean getBooleanValue(String field) {
-        try {
-            Object val = annotation.annotationType().getMethod(field).invoke(annotation);
-            return val instanceof Boolean && (Boolean) val;
-        } catch (Exception e) {
-            return false;
-        }
+    public Method getMethod() {
+        return method;
     }
 
-    public void invoke(Update update, AbstractBotUser user) throws Exception {
-        if (method.getParameterCount() == 2) {
-            method.invoke(instance, update, user);
-        } else {
-            method.invoke(instance, update);
+    public Object getInstance() {
+        return instance;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * @return value returned by the handler method: {@code null} for {@code void} methods, a {@link CompletionStage}
+     * that completes when the handler has finished, or Bot API methods to send in response
+     */
+    public Object invoke(Update update, AbstractBotUser user) throws Exception {
+        if (argumentsInvoker == null) return invoker.invoke(update, user);
+        return invoke(new DispatchContext(update), user);
+    }
+
+    /**
+     * Same as {@link #invoke(Update, AbstractBotUser)}, passing the context to handlers that declare it.
+     */
+    public Object invoke(DispatchContext context, AbstractBotUser user) throws Exception {
+        if (argumentsInvoker == null) return invoker.invoke(context.getUpdate(), user);
+
+        Object[] arguments = new Object[argumentCount];
+        int offset = 0;
+        if (injectsContext) arguments[offset++] = context;
+        if (injectsAlbum) arguments[offset++] = context.getAlbum();
+        if (offset < arguments.length) {
+            // Данные уже проверены при выборе обработчика, здесь шаблон проходится второй раз ради значений
+            String data = textOf(context);
+            if (data == null || !plan.getTemplate().extract(data, arguments, offset)) {
+                throw new IllegalArgumentException("Callback data '" + data + "' does not match template '"
+                        + plan.getTemplate() + "' of " + name);
+            }
         }
+        return argumentsInvoker.invoke(context.getUpdate(), user, arguments);
     }
 }
-
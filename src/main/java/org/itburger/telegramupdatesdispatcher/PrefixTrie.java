@@ -0,0 +1,103 @@
+package org.itburger.telegramupdatesdispatcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable character trie of {@code startsWith} handler values.
+ * Every node stores the ordinals of all handlers whose value is a prefix of the path to that node,
+ * sorted ascending, so a single walk over the text yields every prefix candidate in priority order.
+ */
+final class PrefixTrie {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final Node root;
+
+    private PrefixTrie(Node root) {
+        this.root = root;
+    }
+
+    boolean isEmpty() {
+        return root.keys.length == 0;
+    }
+
+    /**
+     * @return ordinals of all handlers whose prefix matches {@code text}, sorted ascending; never {@code null}
+     */
+    int[] match(String text) {
+        Node node = root;
+        int[] result = EMPTY;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            node = node.child(text.charAt(i));
+            if (node == null) break;
+            if (node.ordinals.length != 0) result = node.ordinals;
+        }
+        return result;
+    }
+
+    private static final class Node {
+        private final char[] keys;
+        private final Node[] children;
+        private final int[] ordinals;
+
+        private Node(char[] keys, Node[] children, int[] ordinals) {
+            this.keys = keys;
+            this.children = children;
+            this.ordinals = ordinals;
+        }
+
+        private Node child(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            return i < 0 ? null : children[i];
+        }
+    }
+
+    static final class Builder {
+        private final MutableNode root = new MutableNode();
+
+        Builder add(String prefix, int ordinal) {
+            MutableNode node = root;
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.children.computeIfAbsent(prefix.charAt(i), c -> new MutableNode());
+            }
+            node.ordinals.add(ordinal);
+            return this;
+        }
+
+        PrefixTrie build() {
+            return new PrefixTrie(freeze(root, EMPTY));
+        }
+
+        private static Node freeze(MutableNode node, int[] inherited) {
+            int[] ordinals = merge(inherited, node.ordinals);
+            char[] keys = new char[node.children.size()];
+            Node[] children = new Node[node.children.size()];
+            int i = 0;
+            for (Map.Entry<Character, MutableNode> entry : node.children.entrySet()) {
+                keys[i] = entry.getKey();
+                children[i] = freeze(entry.getValue(), ordinals);
+                i++;
+            }
+            return new Node(keys, children, ordinals);
+        }
+
+        private static int[] merge(int[] inherited, List<Integer> own) {
+            if (own.isEmpty()) return inherited;
+            int[] merged = Arrays.copyOf(inherited, inherited.length + own.size());
+            for (int i = 0; i < own.size(); i++) {
+                merged[inherited.length + i] = own.get(i);
+            }
+            Arrays.sort(merged);
+            return merged;
+        }
+    }
+
+    private static final class MutableNode {
+        private final TreeMap<Character, MutableNode> children = new TreeMap<>();
+        private final List<Integer> ordinals = new ArrayList<>();
+    }
+}
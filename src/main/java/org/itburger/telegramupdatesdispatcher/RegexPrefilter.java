@@ -0,0 +1,394 @@
+package org.itburger.telegramupdatesdispatcher;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.regex.Pattern;
+
+/**
+ * Rules out {@code regex()} handlers without running their regexes.
+ * <p>
+ * A regex like {@code ^order:\d+$} can only match text containing {@code "order:"}. At registration the longest
+ * such required literal is extracted from every regex, and all literals of a route are compiled into one
+ * Aho-Corasick automaton. A single scan of the text then tells which literals occur in it; a handler whose
+ * literal is absent cannot match and is skipped. Regexes without a provable literal (top-level alternation,
+ * inline flags, only classes and groups) are always evaluated, so the first matching handler never changes.
+ */
+final class RegexPrefilter {
+
+    private static final int[] EMPTY = new int[0];
+    static final RegexPrefilter NONE = new RegexPrefilter(new Node(), new int[0], 0);
+
+    private final Node root;
+    // Номер литерала для каждого обработчика маршрута, -1 если обработчик не фильтруется
+    private final int[] literalByOrdinal;
+    private final int literalCount;
+
+    private RegexPrefilter(Node root, int[] literalByOrdinal, int literalCount) {
+        this.root = root;
+        this.literalByOrdinal = literalByOrdinal;
+        this.literalCount = literalCount;
+    }
+
+    /**
+     * @param handlers sorted handlers of a route, only the {@code regex()} ones are considered
+     */
+    static RegexPrefilter build(MethodHandler[] handlers) {
+        int[] literalByOrdinal = new int[handlers.length];
+        Arrays.fill(literalByOrdinal, -1);
+        Map<String, Integer> literals = new LinkedHashMap<>();
+        for (int i = 0; i < handlers.length; i++) {
+            MatchPlan plan = handlers[i].getPlan();
+            if (plan.getStrategy() != MatchPlan.Strategy.REGEX) continue;
+            String literal = requiredLiteral(plan.getPattern());
+            if (literal.isEmpty()) continue;
+            literalByOrdinal[i] = literals.computeIfAbsent(literal, k -> literals.size());
+        }
+        if (literals.isEmpty()) return NONE;
+
+        Node root = new Node();
+        literals.forEach((literal, id) -> {
+            Node node = root;
+            for (int i = 0; i < literal.length(); i++) {
+                node = node.addChild(literal.charAt(i));
+            }
+            node.output = new int[]{id};
+        });
+        linkFailures(root);
+        return new RegexPrefilter(root, literalByOrdinal, literals.size());
+    }
+
+    boolean isEmpty() {
+        return literalCount == 0;
+    }
+
+    boolean isFiltered(int ordinal) {
+        return literalCount != 0 && literalByOrdinal[ordinal] >= 0;
+    }
+
+    /**
+     * @return bit set of the literals occurring in {@code text}, for {@link #mayMatch(long[], int)}
+     */
+    long[] scan(String text) {
+        long[] found = new long[(literalCount + 63) >>> 6];
+        Node node = root;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = text.charAt(i);
+            Node next = node.child(c);
+            while (next == null && node != root) {
+                node = node.fail;
+                next = node.child(c);
+            }
+            node = next != null ? next : root;
+            for (int id : node.output) {
+                found[id >>> 6] |= 1L << id;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return {@code false} if the regex of the handler cannot match the scanned text
+     */
+    boolean mayMatch(long[] found, int ordinal) {
+        int id = literalByOrdinal[ordinal];
+        return id < 0 || (found[id >>> 6] & 1L << id) != 0;
+    }
+
+    private static void linkFailures(Node root) {
+        Queue<Node> queue = new ArrayDeque<>();
+        root.fail = root;
+        for (Node child : root.children) {
+            child.fail = root;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            Node node = queue.remove();
+            for (int i = 0; i < node.keys.length; i++) {
+                char c = node.keys[i];
+                Node child = node.children[i];
+                Node fail = node.fail;
+                while (fail != root && fail.child(c) == null) {
+                    fail = fail.fail;
+                }
+                Node target = fail.child(c);
+                child.fail = target != null ? target : root;
+                // Литералы, оканчивающиеся в этом узле, включая более короткие суффиксы
+                child.output = merge(child.output, child.fail.output);
+                queue.add(child);
+            }
+        }
+    }
+
+    private static int[] merge(int[] own, int[] inherited) {
+        if (inherited.length == 0) return own;
+        if (own.length == 0) return inherited;
+        int[] merged = Arrays.copyOf(own, own.length + inherited.length);
+        System.arraycopy(inherited, 0, merged, own.length, inherited.length);
+        return merged;
+    }
+
+    /**
+     * Longest run of literal characters that every match of the pattern must contain.
+     *
+     * @return the literal, or an empty string if none can be proven
+     */
+    static String requiredLiteral(Pattern pattern) {
+        if (pattern.flags() != 0) return "";
+        String regex = pattern.pattern();
+        if (hasInlineFlags(regex)) return "";
+
+        String best = "";
+        StringBuilder run = new StringBuilder();
+        int i = 0;
+        int n = regex.length();
+        while (i < n) {
+            char c = regex.charAt(i);
+            // Атом: литеральная строка или null для всего остального
+            String atom = null;
+            switch (c) {
+                case '|':
+                case ')':
+                    return "";
+                case '(':
+                    i = skipGroup(regex, i);
+                    break;
+                case '[':
+                    i = skipClass(regex, i);
+                    break;
+                case '.':
+                case '^':
+                case '$':
+                    i++;
+                    break;
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    return "";
+                case '\\':
+                    if (i + 1 >= n) return "";
+                    char escaped = regex.charAt(i + 1);
+                    if (escaped == 'Q') {
+                        int end = regex.indexOf("\\E", i + 2);
+                        atom = regex.substring(i + 2, end < 0 ? n : end);
+                        i = end < 0 ? n : end + 2;
+                    } else if (!Character.isLetterOrDigit(escaped)) {
+                        atom = String.valueOf(escaped);
+                        i += 2;
+                    } else {
+                        char control = control(escaped);
+                        if (control != 0) atom = String.valueOf(control);
+                        i = skipEscape(regex, i);
+                    }
+                    break;
+                default:
+                    atom = String.valueOf(c);
+                    i++;
+                    break;
+            }
+            if (i < 0) return "";
+
+            int min = -1;
+            if (i < n && isQuantifier(regex.charAt(i))) {
+                min = minRepetitions(regex, i);
+                if (min < 0) return "";
+                i = skipQuantifier(regex, i);
+            }
+
+            if (atom == null) {
+                best = longer(best, run);
+            } else if (min < 0) {
+                run.append(atom);
+            } else {
+                // Квантификатор относится только к последнему символу атома
+                run.append(atom, 0, min == 0 ? Math.max(0, atom.length() - 1) : atom.length());
+                best = longer(best, run);
+            }
+        }
+        return longer(best, run);
+    }
+
+    private static String longer(String best, StringBuilder run) {
+        String result = run.length() > best.length() ? run.toString() : best;
+        run.setLength(0);
+        return result;
+    }
+
+    private static boolean hasInlineFlags(String regex) {
+        for (int i = regex.indexOf("(?"); i >= 0; i = regex.indexOf("(?", i + 1)) {
+            if (i + 2 < regex.length()) {
+                char c = regex.charAt(i + 2);
+                if (Character.isLetter(c) || c == '-') return true;
+            }
+        }
+        return false;
+    }
+
+    private static char control(char escaped) {
+        switch (escaped) {
+            case 't':
+                return '\t';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 'f':
+                return '\f';
+            case 'a':
+                return '\u0007';
+            case 'e':
+                return '\u001B';
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return index after an escape sequence starting with a letter or digit, e.g. {@code \d}, {@code \p{L}}
+     */
+    private static int skipEscape(String regex, int i) {
+        int n = regex.length();
+        char escaped = regex.charAt(i + 1);
+        i += 2;
+        switch (escaped) {
+            case 'p':
+            case 'P':
+            case 'N':
+            case 'x':
+                if (i < n && regex.charAt(i) == '{') {
+                    int end = regex.indexOf('}', i);
+                    return end < 0 ? -1 : end + 1;
+                }
+                return escaped == 'x' ? i + 2 : i + 1;
+            case 'u':
+                return i + 4;
+            case 'c':
+                return i + 1;
+            case 'k':
+                int close = regex.indexOf('>', i);
+                return close < 0 ? -1 : close + 1;
+            case '0':
+                for (int digits = 0; digits < 3 && i < n && regex.charAt(i) >= '0' && regex.charAt(i) <= '7'; digits++) {
+                    i++;
+                }
+                return i;
+            default:
+                // Обратная ссылка может состоять из нескольких цифр
+                if (Character.isDigit(escaped)) {
+                    while (i < n && Character.isDigit(regex.charAt(i))) i++;
+                }
+                return i;
+        }
+    }
+
+    private static int skipGroup(String regex, int i) {
+        int depth = 0;
+        int n = regex.length();
+        while (i < n) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i = skipEscaped(regex, i);
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+            } else {
+                if (c == '(') depth++;
+                if (c == ')' && --depth == 0) return i + 1;
+                i++;
+            }
+            if (i < 0) return -1;
+        }
+        return -1;
+    }
+
+    private static int skipClass(String regex, int i) {
+        int n = regex.length();
+        i++;
+        if (i < n && regex.charAt(i) == '^') i++;
+        // Закрывающая скобка сразу после открывающей является литералом
+        if (i < n && regex.charAt(i) == ']') i++;
+        while (i < n) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i = skipEscaped(regex, i);
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+            } else if (c == ']') {
+                return i + 1;
+            } else {
+                i++;
+            }
+            if (i < 0) return -1;
+        }
+        return -1;
+    }
+
+    // Пропуск экранированного символа внутри группы или класса, с учётом \Q...\E
+    private static int skipEscaped(String regex, int i) {
+        if (i + 1 >= regex.length()) return -1;
+        if (regex.charAt(i + 1) == 'Q') {
+            int end = regex.indexOf("\\E", i + 2);
+            return end < 0 ? regex.length() : end + 2;
+        }
+        return i + 2;
+    }
+
+    private static boolean isQuantifier(char c) {
+        return c == '?' || c == '*' || c == '+' || c == '{';
+    }
+
+    private static int minRepetitions(String regex, int i) {
+        char c = regex.charAt(i);
+        if (c == '+') return 1;
+        if (c != '{') return 0;
+        int min = 0;
+        int digits = 0;
+        for (i++; i < regex.length() && Character.isDigit(regex.charAt(i)); i++, digits++) {
+            min = Math.min(min * 10 + regex.charAt(i) - '0', 1_000_000);
+        }
+        return digits == 0 ? -1 : min;
+    }
+
+    private static int skipQuantifier(String regex, int i) {
+        if (regex.charAt(i) == '{') {
+            i = regex.indexOf('}', i) + 1;
+        } else {
+            i++;
+        }
+        // Ленивые и ревнивые квантификаторы
+        if (i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) i++;
+        return i;
+    }
+
+    private static final class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private Node fail;
+        private int[] output = EMPTY;
+
+        private Node child(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            return i < 0 ? null : children[i];
+        }
+
+        private Node addChild(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            if (i >= 0) return children[i];
+            i = -i - 1;
+            Node child = new Node();
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, i);
+            System.arraycopy(children, 0, newChildren, 0, i);
+            newKeys[i] = c;
+            newChildren[i] = child;
+            System.arraycopy(keys, i, newKeys, i + 1, keys.length - i);
+            System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+            keys = newKeys;
+            children = newChildren;
+            return child;
+        }
+    }
+}
@@ -6,15 +6,33 @@ import org.itburger.telegramupdatesdispatcher.generics.*;
 import org.reflections.Reflections;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.context.ApplicationContext;
+import org.springframework.util.ClassUtils;
+import org.itburger.telegramupdatesdispatcher.responses.ResponseScheduler;
+import org.telegram.telegrambots.meta.api.methods.botapimethods.BotApiMethod;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.itburger.telegramupdatesdispatcher.annotations.*;
+import org.itburger.telegramupdatesdispatcher.exceptions.InvalidTemplateException;
 import org.itburger.telegramupdatesdispatcher.exceptions.TelegramMiddlewareException;
 import org.itburger.telegramupdatesdispatcher.generics.*;
-import org.itburger.telegramupdatesdispatcher.models.DefaultMiddlewareChain;
+import org.itburger.telegramupdatesdispatcher.models.DispatchContext;
+import org.itburger.telegramupdatesdispatcher.models.FilterDecision;
+import org.itburger.telegramupdatesdispatcher.models.HandlerDefinition;
+import org.itburger.telegramupdatesdispatcher.models.HandlerKind;
+import org.itburger.telegramupdatesdispatcher.models.MiddlewarePipeline;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.regex.PatternSyntaxException;
 import java.util.stream.Collectors;
 
 /**
@@ -23,12 +41,30 @@ import java.util.stream.Collectors;
 @Slf4j
 public class TelegramUpdateDispatcher<U extends AbstractBotUser> {
 
+    private static final CompletionStage<Void> COMPLETED = CompletableFuture.completedStage(null);
+    // Отложенные фильтрами обновления продолжаются в виртуальных потоках
+    private static final Executor DELAYED_EXECUTOR = runnable -> Thread.ofVirtual().start(runnable);
+    private static final Duration DEFAULT_ALBUM_WINDOW = Duration.ofMillis(500);
+    private static final int DEFAULT_MAX_PENDING_ALBUMS = 1000;
+
     private final AbstractUserService<U> userService;
     private final Class<U> userClass;
-    private final Map<Class<? extends Annotation>, List<MethodHandler>> handlers = new HashMap<>();
+    // Зарегистрированные обработчики в порядке регистрации, изменяются под блокировкой самой карты
+    private final Map<HandlerKind, List<MethodHandler>> handlers = new EnumMap<>(HandlerKind.class);
+    // Неизменяемый снимок маршрутов, читается без блокировок и заменяется целиком
+    private volatile Map<HandlerKind, HandlerRoute> routes = Map.of();
     private final ApplicationContext applicationContext;
     private final LocaleService localeService;
     private final List<TelegramMiddleware<U>> middlewares;
+    // Строится при первом обновлении, а не в конструкторе, чтобы не публиковать this до конца инициализации
+    private volatile MiddlewarePipeline<U> pipeline;
+    private final Object pipelineLock = new Object();
+    private volatile DispatchMetrics metrics = DispatchMetrics.NOOP;
+    private final List<UpdateFilter> filters = new CopyOnWriteArrayList<>();
+    private volatile ResponseScheduler responses;
+    // Как и pipeline, создаётся при первом альбоме, чтобы не публиковать this до конца инициализации
+    private volatile AlbumAggregator albums;
+    private final Object albumsLock = new Object();
 
     public TelegramUpdateDispatcher(
             AbstractUserService<U> userService,
@@ -37,13 +73,13 @@ public class TelegramUpdateDispatcher<U extends AbstractBotUser> {
             ApplicationContext applicationContext,
             LocaleService localeService
     ) {
-        this.middlewares = new ArrayList<>();
         this.userService = userService;
         this.userClass = userClass;
         this.applicationContext = applicationContext;
         this.localeService = localeService;
         initHandlers(updateHandlersPackage);
-        sortHandlers();
+        rebuildRoutes(EnumSet.allOf(HandlerKind.class));
+        this.middlewares = List.of();
     }
 
     public TelegramUpdateDispatcher(
@@ -52,13 +88,13 @@ public class TelegramUpdateDispatcher<U extends AbstractBotUser> {
             String updateHandlersPackage,
             ApplicationContext applicationContext
     ) {
-        this.middlewares = new ArrayList<>();
         this.userService = userService;
         this.userClass = userClass;
         this.applicationContext = applicationContext;
         this.localeService = null;
         initHandlers(updateHandlersPackage);
-        sortHandlers();
+        rebuildRoutes(EnumSet.allOf(HandlerKind.class));
+        this.middlewares = List.of();
     }
 
     public TelegramUpdateDispatcher(
@@ -69,13 +105,13 @@ public class TelegramUpdateDispatcher<U extends AbstractBotUser> {
             LocaleService localeService,
             List<TelegramMiddleware<U>> middlewares
     ) {
-        this.middlewares = middlewares;
         this.userService = userService;
         this.userClass = userClass;
         this.applicationContext = applicationContext;
         this.localeService = localeService;
         initHandlers(updateHandlersPackage);
-        sortHandlers();
+        rebuildRoutes(EnumSet.allOf(HandlerKind.class));
+        this.middlewares = middlewares != null ? List.copyOf(middlewares) : List.of();
     }
 
     public TelegramUpdateDispatcher(
@@ -85,84 +121,235 @@ public class TelegramUpdateDispatcher<U extends AbstractBotUser> {
             ApplicationContext applicationContext,
             List<TelegramMiddleware<U>> middlewares
     ) {
-        this.middlewares = middlewares;
         this.userService = userService;
         this.userClass = userClass;
         this.applicationContext = applicationContext;
         this.localeService = null;
         initHandlers(updateHandlersPackage);
-        sortHandlers();
+        rebuildRoutes(EnumSet.allOf(HandlerKind.class));
+        this.middlewares = middlewares != null ? List.copyOf(middlewares) : List.of();
     }
 
     //Sort handlers by conditions priority
-    private void sortHandlers() {
-        List<MethodHandler> messageHandlers = handlers.getOrDefault(MessageHandler.class, new ArrayList<>());
+    private static List<MethodHandler> sortHandlers(HandlerKind kind, List<MethodHandler> handlers) {
+        if (kind != HandlerKind.MESSAGE) return handlers;
 
-        List<MethodHandler> sorted = messageHandlers.stream()
+        return handlers.stream()
                 .sorted(Comparator.comparingInt((MethodHandler mh) -> {
+                    MatchPlan plan = mh.getPlan();
                     int score = 0;
-                    try {
+                    if (!plan.getRegex().isEmpty()) score += 8;
+                    if (!plan.getLocalizedValueKey().isEmpty()) score += 4;
+                    if (!plan.getValue().isEmpty()) score += 2;
+                    if (!plan.getRequiredStates().isEmpty()) score += 1;
+                    return -score;
+                }))
+                .collect(Collectors.toList());
+    }
 
-                        String regex = mh.getStringValue("regex");
-                        if (regex != null && !regex.isEmpty()) score += 8;
+    /**
+     * Sets the receiver of dispatch measurements, {@link DispatchMetrics#NOOP} turns measuring off.
+     * Updates that are already being dispatched finish with the previous receiver.
+     */
+    public void setMetrics(DispatchMetrics metrics) {
+        synchronized (pipelineLock) {
+            this.metrics = metrics != null ? metrics : DispatchMetrics.NOOP;
+            this.pipeline = new MiddlewarePipeline<>(middlewares, this, this.metrics);
+        }
+    }
 
-                        String locKey = mh.getStringValue("localizedValueKey");
-                        if (locKey != null && !locKey.isEmpty()) score += 4;
+    private MiddlewarePipeline<U> pipeline() {
+        MiddlewarePipeline<U> pipeline = this.pipeline;
+        if (pipeline != null) return pipeline;
+        synchronized (pipelineLock) {
+            if (this.pipeline == null) {
+                this.pipeline = new MiddlewarePipeline<>(middlewares, this, metrics);
+            }
+            return this.pipeline;
+        }
+    }
 
-                        String value = mh.getStringValue("value");
-                        if (value != null && !value.isEmpty()) score += 2;
+    /**
+     * Drops localized button texts cached for {@code localizedValueKey} handlers.
+     * Call it after translations behind {@link LocaleService} have changed.
+     */
+    public void invalidateLocalizedTexts() {
+        routes.values().forEach(route -> route.invalidateLocalizedTexts(null));
+    }
 
-                        Annotation annotation = mh.getAnnotation();
-                        if (annotation != null) {
-                            try {
-                                Object o = annotation.annotationType().getMethod("requiredStates").invoke(annotation);
-                                if (o instanceof String[]) {
-                                    String[] array = (String[]) o;
-                                    if (array.length > 0) score += 1;
-                                }
-                            } catch (NoSuchMethodException ignore) {
+    /**
+     * Drops localized button texts cached for one language.
+     */
+    public void invalidateLocalizedTexts(String langCode) {
+        routes.values().forEach(route -> route.invalidateLocalizedTexts(langCode));
+    }
 
-                            }
-                        }
-                    } catch (Exception e) {
-                        log.error("Error while computing MethodHandler score for sorting", e);
+    /**
+     * Sets the scheduler sending Bot API methods returned by handlers, {@code null} to stop sending them.
+     * A handler may return a {@link BotApiMethod}, a list of them or a {@link CompletionStage} completing
+     * with either; the dispatch does not wait for them to be sent.
+     */
+    public void setResponseScheduler(ResponseScheduler responses) {
+        this.responses = responses;
+    }
+
+    /**
+     * Configures collecting of media groups for {@link AlbumHandler} handlers; by default albums are collected
+     * for 500 ms and at most 1000 of them at a time. While album handlers are registered, updates of a media group
+     * are held after {@link UpdateFilter update filters} until the group is complete, the window since its first
+     * update has passed, or more albums than {@code maxPendingAlbums} are being collected. Dispatching a held
+     * update returns at once; the album is dispatched in the background, outside the per-user order
+     * of {@link AsyncUpdateDispatcher}. Albums already being collected are dispatched with the previous settings.
+     */
+    public void configureAlbums(Duration window, int maxPendingAlbums) {
+        AlbumAggregator albums = new AlbumAggregator(window.toNanos(), maxPendingAlbums, DELAYED_EXECUTOR,
+                this::dispatchAlbum);
+        synchronized (albumsLock) {
+            this.albums = albums;
+        }
+    }
+
+    private AlbumAggregator albums() {
+        AlbumAggregator albums = this.albums;
+        if (albums != null) return albums;
+        synchronized (albumsLock) {
+            if (this.albums == null) {
+                this.albums = new AlbumAggregator(DEFAULT_ALBUM_WINDOW.toNanos(), DEFAULT_MAX_PENDING_ALBUMS,
+                        DELAYED_EXECUTOR, this::dispatchAlbum);
+            }
+            return this.albums;
+        }
+    }
+
+    /**
+     * Registers the handler methods of an object at runtime, e.g. a bean of a feature module loaded later.
+     * Routes of the affected update kinds are rebuilt and published at once; routes of other kinds,
+     * with their cached localized texts, are kept. Updates already being routed finish with the previous routes.
+     *
+     * @return registered handlers, empty if the object has no handler methods
+     * @throws IllegalStateException if the object is already registered, or a handler has an invalid regex
+     *                               or template; nothing is registered then
+     */
+    public List<MethodHandler> registerHandlers(Object instance) {
+        List<MethodHandler> created = new ArrayList<>();
+        // Для CGLIB-прокси Spring аннотации лежат на исходном классе
+        for (Method method : ClassUtils.getUserClass(instance).getDeclaredMethods()) {
+            for (Annotation annotation : method.getAnnotations()) {
+                if (!isHandlerAnnotation(annotation)) continue;
+                MethodHandler handler = createHandler(instance, method, annotation, null);
+                if (handler != null) created.add(handler);
+            }
+        }
+
+        synchronized (handlers) {
+            for (List<MethodHandler> list : handlers.values()) {
+                for (MethodHandler handler : list) {
+                    if (handler.getInstance() == instance) {
+                        throw new IllegalStateException("Handlers of " + instance + " are already registered");
                     }
-                    return -score;
-                }))
-                .collect(Collectors.toList());
+                }
+            }
+            EnumSet<HandlerKind> affected = EnumSet.noneOf(HandlerKind.class);
+            for (MethodHandler handler : created) {
+                handlers.computeIfAbsent(handler.getKind(), k -> new ArrayList<>()).add(handler);
+                affected.add(handler.getKind());
+            }
+            rebuildRoutes(affected);
+        }
+        return List.copyOf(created);
+    }
+
+    /**
+     * Same as {@link #registerHandlers(Object)} for an instance resolved the way scanned handler classes are:
+     * a bean from the application context, or a new instance created by the no-args constructor.
+     */
+    public List<MethodHandler> registerHandlerClass(Class<?> handlerClass) {
+        return registerHandlers(resolveInstance(handlerClass));
+    }
+
+    /**
+     * Removes the handlers bound to the given object, see {@link #registerHandlers(Object)}.
+     *
+     * @return number of removed handlers
+     */
+    public int unregisterHandlers(Object instance) {
+        return unregister(handler -> handler.getInstance() == instance);
+    }
 
-        // гарантируем изменяемый список при необходимости
-        handlers.put(MessageHandler.class, new ArrayList<>(sorted));
+    /**
+     * Removes the handlers declared by the given class, whichever instance they are bound to.
+     *
+     * @return number of removed handlers
+     */
+    public int unregisterHandlerClass(Class<?> handlerClass) {
+        return unregister(handler -> handler.getMethod().getDeclaringClass() == handlerClass);
     }
 
+    private int unregister(Predicate<MethodHandler> filter) {
+        synchronized (handlers) {
+            int removed = 0;
+            EnumSet<HandlerKind> affected = EnumSet.noneOf(HandlerKind.class);
+            for (Map.Entry<HandlerKind, List<MethodHandler>> entry : handlers.entrySet()) {
+                int size = entry.getValue().size();
+                if (entry.getValue().removeIf(filter)) {
+                    removed += size - entry.getValue().size();
+                    affected.add(entry.getKey());
+                }
+            }
+            rebuildRoutes(affected);
+            return removed;
+        }
+    }
+
+    /**
+     * @return handlers of every kind in routing order
+     */
+    public List<MethodHandler> getHandlers() {
+        List<MethodHandler> result = new ArrayList<>();
+        routes.values().forEach(route -> result.addAll(route.getHandlers()));
+        return result;
+    }
+
+    // Пересобирает маршруты только указанных видов, остальные переходят в новый снимок как есть
+    private void rebuildRoutes(Set<HandlerKind> kinds) {
+        if (kinds.isEmpty()) return;
+        Map<HandlerKind, HandlerRoute> next = new EnumMap<>(HandlerKind.class);
+        next.putAll(routes);
+        for (HandlerKind kind : kinds) {
+            List<MethodHandler> list = handlers.getOrDefault(kind, List.of());
+            if (list.isEmpty()) {
+                next.remove(kind);
+            } else {
+                next.put(kind, new HandlerRoute(kind, sortHandlers(kind, list), localeService));
+            }
+        }
+        routes = Collections.unmodifiableMap(next);
+    }
+
+    // Набор обработчиков всегда определяет сканирование classpath, реестр только даёт готовые вызовы методов:
+    // неполный реестр (раздельная компиляция, процессор не подключён) не должен терять обработчики
     private void initHandlers(String... scanPackages) {
+        Map<Method, HandlerDefinition> precompiled = findPrecompiled(scanPackages);
+
         Reflections reflections = new Reflections((Object[]) scanPackages);
 
         Set<Class<?>> classes = reflections.getTypesAnnotatedWith(UpdateHandler.class);
+        List<Method> notPrecompiled = new ArrayList<>();
         for (Class<?> clazz : classes) {
             try {
-                Object instance = null;
-
-                try {
-                    instance = applicationContext.getBean(clazz);
-                } catch (NoSuchBeanDefinitionException e) {
-                    try {
-                        instance = clazz.getDeclaredConstructor().newInstance();
-                    } catch (Exception ex) {
-                        throw new RuntimeException("Ошибка при инициализации обработчика: " + clazz.getName(), ex);
-                    }
-                }
+                Object instance = resolveInstance(clazz);
 
                 for (Method method : clazz.getDeclaredMethods()) {
                     for (Annotation annotation : method.getAnnotations()) {
                         if (isHandlerAnnotation(annotation)) {
-                            try {
-                                MethodHandler handler = new MethodHandler(instance, method, annotation, localeService);
-                                handlers.computeIfAbsent(annotation.annotationType(), k -> new ArrayList<>())
-                                        .add(handler);
-                            }catch (IllegalArgumentException e){
-                                log.error("Error initializing MethodHandler", e);
+                            HandlerDefinition definition = precompiled.get(method);
+                            HandlerInvoker invoker = null;
+                            if (definition != null) {
+                                invoker = definition.createInvoker(instance);
+                            } else if (!precompiled.isEmpty()) {
+                                notPrecompiled.add(method);
                             }
+                            registerHandler(instance, method, annotation, invoker);
                         }
                     }
                 }
@@ -170,61 +357,391 @@ public class TelegramUpdateDispatcher<U extends AbstractBotUser> {
                 throw new RuntimeException("Ошибка при инициализации обработчика: " + clazz, e);
             }
         }
+        checkRegistries(precompiled, classes, notPrecompiled);
     }
 
-    public void dispatch(Update update, U user){
-        Class wantedClass = null;
-
-        if (update.hasMessage() && update.getMessage().isUserMessage()){
-            if (update.getMessage().isCommand()){
-                wantedClass = CommandHandler.class;
-            }else if (update.getMessage().hasPhoto()){
-                wantedClass = PhotoHandler.class;
-            }else if (update.getMessage().hasVideo()){
-                wantedClass = VideoHandler.class;
-            }else if (update.getMessage().hasDocument()){
-                wantedClass = DocumentHandler.class;
-            }else if (update.getMessage().hasVoice()){
-                wantedClass = VoiceHandler.class;
-            }else if (update.getMessage().hasAudio()){
-                wantedClass = AudioHandler.class;
-            }else if (update.getMessage().hasSuccessfulPayment()){
-                wantedClass = SuccessfulPaymentHandler.class;
-            }else {
-                wantedClass = MessageHandler.class;
+    // Handlers listed at compile time by HandlerRegistryProcessor, keyed by method
+    private Map<Method, HandlerDefinition> findPrecompiled(String... scanPackages) {
+        Map<Method, HandlerDefinition> precompiled = new HashMap<>();
+        for (HandlerRegistry registry : findRegistries(scanPackages)) {
+            for (HandlerDefinition definition : registry.getHandlers()) {
+                try {
+                    Method method = definition.getHandlerClass()
+                            .getDeclaredMethod(definition.getMethodName(), definition.getParameterTypes());
+                    precompiled.putIfAbsent(method, definition);
+                } catch (NoSuchMethodException e) {
+                    log.warn("Handler registry {} lists missing method {}.{}, registry is out of date",
+                            registry.getClass().getName(), definition.getHandlerClass().getName(), definition.getMethodName());
+                }
             }
-        }else if (update.hasCallbackQuery() && update.getCallbackQuery().getMessage().isUserMessage()){
-            wantedClass = CallbackQueryHandler.class;
-        }else if (update.hasInlineQuery()){
-            wantedClass = InlineQueryHandler.class;
-        }else if (update.hasPreCheckoutQuery()){
-            wantedClass = PreCheckoutQueryHandler.class;
         }
+        return precompiled;
+    }
 
-        for (MethodHandler handler : handlers.getOrDefault(wantedClass, new ArrayList<>())) {
-            try {
-                if (handler.matches(update, user)) {
-                    handler.invoke(update, user);
-                    return;
+    /**
+     * Reports a handler registry that does not match the classpath scan. Handlers are registered from the scan
+     * either way, a missing registry entry only costs the reflective call.
+     */
+    private void checkRegistries(Map<Method, HandlerDefinition> precompiled, Set<Class<?>> scanned, List<Method> notPrecompiled) {
+        if (!notPrecompiled.isEmpty()) {
+            log.warn("Handler registry does not list {} handler methods found by the classpath scan, they are called "
+                    + "reflectively. Check that the annotation processor runs for every module with handlers: {}",
+                    notPrecompiled.size(), notPrecompiled);
+        }
+        List<Method> notScanned = precompiled.keySet().stream()
+                .filter(method -> !scanned.contains(method.getDeclaringClass()))
+                .collect(Collectors.toList());
+        if (!notScanned.isEmpty()) {
+            log.warn("Handler registry lists {} handler methods the classpath scan did not find, they are ignored: {}",
+                    notScanned.size(), notScanned);
+        }
+    }
+
+    private List<HandlerRegistry> findRegistries(String... scanPackages) {
+        List<HandlerRegistry> registries = new ArrayList<>();
+        for (HandlerRegistry registry : ServiceLoader.load(HandlerRegistry.class)) {
+            for (String scanPackage : scanPackages) {
+                String packageName = registry.getPackageName();
+                if (packageName.equals(scanPackage) || packageName.startsWith(scanPackage + ".")) {
+                    registries.add(registry);
+                    break;
                 }
-            } catch (Exception e) {
-                log.error(e.getMessage(), e);
+            }
+        }
+        return registries;
+    }
+
+    private Object resolveInstance(Class<?> clazz) {
+        try {
+            return applicationContext.getBean(clazz);
+        } catch (NoSuchBeanDefinitionException e) {
+            try {
+                return clazz.getDeclaredConstructor().newInstance();
+            } catch (Exception ex) {
+                throw new RuntimeException("Ошибка при инициализации обработчика: " + clazz.getName(), ex);
+            }
+        }
+    }
+
+    private void registerHandler(Object instance, Method method, Annotation annotation, HandlerInvoker invoker) {
+        MethodHandler handler = createHandler(instance, method, annotation, invoker);
+        if (handler == null) return;
+        synchronized (handlers) {
+            handlers.computeIfAbsent(handler.getKind(), k -> new ArrayList<>()).add(handler);
+        }
+    }
+
+    /**
+     * @return the handler, or {@code null} if the method is not a valid handler (logged)
+     */
+    private MethodHandler createHandler(Object instance, Method method, Annotation annotation, HandlerInvoker invoker) {
+        try {
+            return new MethodHandler(instance, method, annotation, localeService, invoker);
+        }catch (PatternSyntaxException e){
+            throw new IllegalStateException("Invalid regex in handler method " + method, e);
+        }catch (InvalidTemplateException e){
+            throw new IllegalStateException("Invalid template in handler method " + method, e);
+        }catch (IllegalArgumentException e){
+            log.error("Error initializing MethodHandler", e);
+            return null;
+        }
+    }
+
+    /**
+     * Routes the update to the first matching handler, bypassing middlewares.
+     * Exceptions of the handler, thrown or completing its stage, are logged.
+     *
+     * @return stage that completes when the handler has finished; already completed for {@code void} handlers
+     */
+    public CompletionStage<Void> dispatch(Update update, U user){
+        return dispatch(new DispatchContext(update), user);
+    }
+
+    /**
+     * Same as {@link #dispatch(Update, AbstractBotUser)}, reusing a context already created for the update.
+     */
+    public CompletionStage<Void> dispatch(DispatchContext context, U user){
+        DispatchMetrics metrics = this.metrics;
+        boolean measured = metrics != DispatchMetrics.NOOP;
+        if (measured) metrics.updateReceived(context.getKind());
+        return route(context, user, metrics, measured);
+    }
+
+    private CompletionStage<Void> route(DispatchContext context, U user, DispatchMetrics metrics, boolean measured) {
+        HandlerKind kind = context.getKind();
+        HandlerRoute route = kind != null ? routes.get(kind) : null;
+        MethodHandler handler = route != null ? route.select(context, user) : null;
+        if (handler == null && context.isAlbum()) {
+            // Ни один обработчик альбомов не подошёл, элементы обрабатываются по отдельности
+            return dispatchAlbumParts(context, user, metrics, measured);
+        }
+        if (handler == null) {
+            if (measured) metrics.updateUnmatched(kind);
+            return COMPLETED;
+        }
+
+        if (!filters.isEmpty()) {
+            FilterDecision decision = filterBeforeHandler(context, handler);
+            if (decision.isDrop()) return COMPLETED;
+            if (decision.getDelayNanos() > 0) {
+                return after(decision.getDelayNanos()).thenCompose(v -> invoke(handler, context, user, metrics, measured));
+            }
+        }
+        return invoke(handler, context, user, metrics, measured);
+    }
+
+    // Альбом уже учтён в updateReceived, элементы считаются только как совпавшие или нет
+    private CompletionStage<Void> dispatchAlbumParts(DispatchContext context, U user, DispatchMetrics metrics, boolean measured) {
+        List<Update> album = context.getAlbum();
+        CompletableFuture<?>[] parts = new CompletableFuture<?>[album.size()];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = route(new DispatchContext(album.get(i)), user, metrics, measured).toCompletableFuture();
+        }
+        return CompletableFuture.allOf(parts);
+    }
+
+    private CompletionStage<Void> invoke(MethodHandler handler, DispatchContext context, U user,
+                                         DispatchMetrics metrics, boolean measured) {
+        long start = measured ? System.nanoTime() : 0L;
+        Object result;
+        try {
+            result = handler.invoke(context, user);
+        } catch (Exception e) {
+            handlerFailed(handler, e, metrics, measured, start);
+            return COMPLETED;
+        }
+
+        if (!(result instanceof CompletionStage)) {
+            if (measured) metrics.handlerInvoked(handler.toString(), System.nanoTime() - start);
+            respond(handler, result);
+            return COMPLETED;
+        }
+        return ((CompletionStage<?>) result).handle((value, error) -> {
+            if (error != null) {
+                handlerFailed(handler, unwrap(error), metrics, measured, start);
+                return null;
+            }
+            if (measured) metrics.handlerInvoked(handler.toString(), System.nanoTime() - start);
+            respond(handler, value);
+            return null;
+        });
+    }
+
+    // Методы Bot API, возвращённые обработчиком, отправляются через планировщик без ожидания
+    private void respond(MethodHandler handler, Object result) {
+        if (result instanceof BotApiMethod) {
+            submit(handler, (BotApiMethod<?>) result);
+        } else if (result instanceof Collection) {
+            for (Object method : (Collection<?>) result) {
+                if (method instanceof BotApiMethod) submit(handler, (BotApiMethod<?>) method);
             }
         }
     }
 
+    private void submit(MethodHandler handler, BotApiMethod<?> method) {
+        ResponseScheduler responses = this.responses;
+        if (responses == null) {
+            log.error("Handler {} returned {}, but no ResponseScheduler is set", handler, method.getMethod());
+            return;
+        }
+        try {
+            responses.submit(method).whenComplete((result, error) -> {
+                if (error != null) log.error("Failed to send " + method.getMethod() + " returned by " + handler, error);
+            });
+        } catch (RejectedExecutionException e) {
+            log.error("Failed to send " + method.getMethod() + " returned by " + handler, e);
+        }
+    }
+
+    private void handlerFailed(MethodHandler handler, Throwable e, DispatchMetrics metrics, boolean measured, long start) {
+        log.error(e.getMessage(), e);
+        if (measured) {
+            metrics.handlerFailed(handler.toString(), e);
+            metrics.handlerInvoked(handler.toString(), System.nanoTime() - start);
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * Looks up the user, runs middlewares and the handler and waits until all of them have finished.
+     */
     public void dispatch(Update update) throws TelegramMiddlewareException {
+        MiddlewarePipeline.await(dispatchAsync(update));
+    }
+
+    /**
+     * Same as {@link #dispatch(Update)}, but does not wait for {@link AsyncTelegramMiddleware asynchronous middlewares}
+     * and handlers returning a {@link CompletionStage}.
+     *
+     * @return stage that completes when the update has been fully processed
+     */
+    public CompletionStage<Void> dispatchAsync(Update update) throws TelegramMiddlewareException {
+        return dispatchAsync(new DispatchContext(update));
+    }
+
+    /**
+     * Same as {@link #dispatchAsync(Update)}, reusing a context already created for the update.
+     */
+    public CompletionStage<Void> dispatchAsync(DispatchContext context) throws TelegramMiddlewareException {
+        if (!filters.isEmpty()) {
+            FilterDecision decision = filterBeforeLookup(context);
+            if (decision.isDrop()) return COMPLETED;
+            if (decision.getDelayNanos() > 0) {
+                return after(decision.getDelayNanos()).thenCompose(v -> collectOrExecute(context));
+            }
+        }
+        return collectOrExecute(context);
+    }
+
+    // Части альбомов копятся до поиска пользователя, если есть обработчики альбомов
+    private CompletionStage<Void> collectOrExecute(DispatchContext context) throws TelegramMiddlewareException {
+        if (isCollected(context)) return albums().add(context);
+        return lookupAndExecute(context);
+    }
+
+    private boolean isCollected(DispatchContext context) {
+        return routes.containsKey(HandlerKind.ALBUM) && AlbumAggregator.isAlbumPart(context);
+    }
+
+    private CompletionStage<Void> dispatchAlbum(List<Update> album) {
+        return lookupAndExecute(DispatchContext.ofAlbum(album));
+    }
+
+    private CompletionStage<Void> lookupAndExecute(DispatchContext context) throws TelegramMiddlewareException {
+        DispatchMetrics metrics = this.metrics;
+        Long userId = context.getUserId();
         U user = null;
+        long start = metrics != DispatchMetrics.NOOP ? System.nanoTime() : 0L;
         try {
-            Long userId = extractUserId(update);
             user = (userId != null) ? userService.findByTelegramId(userId) : null;
         } catch (Exception e) {
             log.error(e.getMessage(), e);
         }
+        if (userId != null && metrics != DispatchMetrics.NOOP) metrics.userLookup(System.nanoTime() - start);
+
+        return pipeline().execute(context, user);
+    }
+
+    /**
+     * Adds a filter checked for every update before the user lookup and before the handler is invoked.
+     * Filters run in the order they were added; the first one dropping the update wins.
+     */
+    public void addUpdateFilter(UpdateFilter filter) {
+        filters.add(filter);
+    }
+
+    private FilterDecision filterBeforeLookup(DispatchContext context) {
+        long delay = 0;
+        for (UpdateFilter filter : filters) {
+            FilterDecision decision;
+            try {
+                decision = filter.beforeLookup(context.getUpdate(), context.getUserId());
+            } catch (Exception e) {
+                log.error("Update filter " + filter + " failed", e);
+                continue;
+            }
+            if (decision.isDrop()) return decision;
+            delay = Math.max(delay, decision.getDelayNanos());
+        }
+        return FilterDecision.delay(delay);
+    }
+
+    private FilterDecision filterBeforeHandler(DispatchContext context, MethodHandler handler) {
+        long delay = 0;
+        for (UpdateFilter filter : filters) {
+            FilterDecision decision;
+            try {
+                decision = filter.beforeHandler(context.getUpdate(), context.getUserId(), handler);
+            } catch (Exception e) {
+                log.error("Update filter " + filter + " failed", e);
+                continue;
+            }
+            if (decision.isDrop()) return decision;
+            delay = Math.max(delay, decision.getDelayNanos());
+        }
+        return FilterDecision.delay(delay);
+    }
+
+    private static CompletionStage<Void> after(long delayNanos) {
+        return CompletableFuture.runAsync(() -> {
+        }, CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS, DELAYED_EXECUTOR));
+    }
 
-        MiddlewareChain<U> chain = new DefaultMiddlewareChain<>(middlewares, this);
-        chain.next(update, user);
+    /**
+     * Dispatches a batch of updates, e.g. one {@code getUpdates} response.
+     * <p>
+     * Users of all updates are loaded up front with a single
+     * {@link AbstractUserService#findAllByTelegramIds(Collection)} call, then updates are dispatched one by one
+     * in list order, so updates of the same user keep their order and see the same user instance.
+     * An exception while dispatching one update is logged and does not stop the rest of the batch.
+     * {@link UpdateFilter Update filters} are applied before the lookup; an update delayed by a filter
+     * holds back the rest of the batch until its delay has passed. Parts of media groups are collected
+     * for {@link AlbumHandler album handlers} as in {@link #dispatchAsync(Update)}.
+     */
+    public void dispatchBatch(List<Update> updates) {
+        long batchStart = System.nanoTime();
+        List<DispatchContext> accepted = new ArrayList<>(updates.size());
+        long[] delays = new long[updates.size()];
+        Set<Long> userIds = new LinkedHashSet<>();
+        for (Update update : updates) {
+            DispatchContext context = new DispatchContext(update);
+            if (!filters.isEmpty()) {
+                FilterDecision decision = filterBeforeLookup(context);
+                if (decision.isDrop()) continue;
+                delays[accepted.size()] = decision.getDelayNanos();
+            }
+            accepted.add(context);
+            Long userId = context.getUserId();
+            if (userId != null && !isCollected(context)) userIds.add(userId);
+        }
+
+        DispatchMetrics metrics = this.metrics;
+        Map<Long, U> users = null;
+        if (!userIds.isEmpty()) {
+            long start = metrics != DispatchMetrics.NOOP ? System.nanoTime() : 0L;
+            try {
+                users = userService.findAllByTelegramIds(userIds);
+            } catch (Exception e) {
+                log.error("Bulk user lookup failed, falling back to single lookups", e);
+            }
+            if (users != null && metrics != DispatchMetrics.NOOP) metrics.userLookup(System.nanoTime() - start);
+        }
+
+        for (int i = 0; i < accepted.size(); i++) {
+            DispatchContext context = accepted.get(i);
+            try {
+                waitUntil(batchStart + delays[i]);
+                if (isCollected(context)) {
+                    albums().add(context);
+                    continue;
+                }
+                Long userId = context.getUserId();
+                if (users == null) {
+                    MiddlewarePipeline.await(lookupAndExecute(context));
+                } else {
+                    runMiddlewares(context, userId != null ? users.get(userId) : null);
+                }
+            } catch (Exception e) {
+                log.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    private static void waitUntil(long deadline) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) return;
+        try {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
+    private void runMiddlewares(DispatchContext context, U user) throws TelegramMiddlewareException {
+        MiddlewarePipeline.await(pipeline().execute(context, user));
     }
 
     private boolean isHandlerAnnotation(Annotation annotation) {
@@ -240,18 +757,7 @@ public class TelegramUpdateDispatcher<U extends AbstractBotUser> {
                 annotation instanceof VoiceHandler ||
                 annotation instanceof AudioHandler ||
                 annotation instanceof SuccessfulPaymentHandler ||
-                annotation instanceof PreCheckoutQueryHandler;
-    }
-
-    private Long extractUserId(Update update) {
-        if (update.getMessage() != null && update.getMessage().getFrom() != null)
-            return update.getMessage().getFrom().getId();
-        if (update.getCallbackQuery() != null && update.getCallbackQuery().getFrom() != null)
-            return update.getCallbackQuery().getFrom().getId();
-        if (update.getInlineQuery() != null && update.getInlineQuery().getFrom() != null)
-            return update.getInlineQuery().getFrom().getId();
-        if (update.getPreCheckoutQuery() != null && update.getPreCheckoutQuery().getFrom() != null)
-            return update.getPreCheckoutQuery().getFrom().getId();
-        return null;
+                annotation instanceof PreCheckoutQueryHandler ||
+                annotation instanceof AlbumHandler;
     }
 }
@@ -0,0 +1,19 @@
+package org.itburger.telegramupdatesdispatcher.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Handles a media group (album) once instead of every photo, video, document or audio in it.
+ * The handler gets the first update of the group and, if it declares a trailing {@code List<Update>}
+ * parameter, all updates of the group sorted by message id. If no album handler matches, the updates
+ * are dispatched one by one to the handlers of their media types.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface AlbumHandler {
+    boolean accessByUnknownUsers() default false;
+    String[] requiredStates() default {};
+}
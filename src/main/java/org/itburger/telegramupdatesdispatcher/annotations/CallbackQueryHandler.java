@@ -14,6 +14,12 @@ public @interface CallbackQueryHandler {
     @Language("RegExp")
     String regex() default "";
     boolean startsWith() default false;
+    /**
+     * Callback data template like {@code "order:{id:long}:{action}"}, takes priority over {@code value()} and {@code regex()}.
+     * Parameters ({@code string} by default, {@code long} or {@code int}) are passed to the handler method
+     * after {@code Update} and the optional user, in template order.
+     */
+    String template() default "";
     boolean accessByUnknownUsers() default false;
     String[] requiredStates() default {};
 }
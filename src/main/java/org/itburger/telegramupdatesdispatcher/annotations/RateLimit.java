@@ -0,0 +1,18 @@
+package org.itburger.telegramupdatesdispatcher.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Own per-user limit of a handler method, applied by
+ * {@link org.itburger.telegramupdatesdispatcher.middlewares.RateLimiter RateLimiter}
+ * on top of its global limit, e.g. for handlers that start expensive work.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RateLimit {
+    double permitsPerSecond();
+    int burst() default 1;
+}
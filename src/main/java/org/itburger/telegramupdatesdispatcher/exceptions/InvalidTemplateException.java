@@ -0,0 +1,17 @@
+package org.itburger.telegramupdatesdispatcher.exceptions;
+
+/**
+ * Thrown when the {@code template()} of a callback query handler cannot be compiled.
+ */
+public class InvalidTemplateException extends IllegalArgumentException {
+    private final String template;
+
+    public InvalidTemplateException(String template, String reason) {
+        super("Invalid callback data template '" + template + "': " + reason);
+        this.template = template;
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+}
@@ -1,7 +1,37 @@
 package org.itburger.telegramupdatesdispatcher.generics;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 public abstract class AbstractUserService<U extends AbstractBotUser> {
     public abstract U findByTelegramId(Long telegramId);
     public abstract U save(U user);
-}
 
+    /**
+     * Loads several users at once, e.g. for {@code TelegramUpdateDispatcher.dispatchBatch}.
+     * The default implementation calls {@link #findByTelegramId(Long)} for every id;
+     * override it to load all users with a single query.
+     *
+     * @return found users by telegram id; unknown ids are absent from the map
+     */
+    public Map<Long, U> findAllByTelegramIds(Collection<Long> telegramIds) {
+        Map<Long, U> users = new HashMap<>();
+        for (Long telegramId : telegramIds) {
+            U user = findByTelegramId(telegramId);
+            if (user != null) users.put(telegramId, user);
+        }
+        return users;
+    }
+
+    /**
+     * Saves several users at once, e.g. a batch flushed by {@code WriteBehindUserService}.
+     * The default implementation calls {@link #save(AbstractBotUser)} for every user;
+     * override it to write all users with a single statement.
+     */
+    public void saveAll(Collection<U> users) {
+        for (U user : users) {
+            save(user);
+        }
+    }
+}
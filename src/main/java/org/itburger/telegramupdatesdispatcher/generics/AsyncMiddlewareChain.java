@@ -0,0 +1,23 @@
+package org.itburger.telegramupdatesdispatcher.generics;
+
+import org.itburger.telegramupdatesdispatcher.models.DispatchContext;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Rest of the middleware pipeline as seen by an {@link AsyncTelegramMiddleware}.
+ */
+public interface AsyncMiddlewareChain<U extends AbstractBotUser> {
+    /**
+     * @return stage that completes when the remaining middlewares and the handler have finished
+     */
+    CompletionStage<Void> next(Update update, U user);
+
+    /**
+     * Same as {@link #next(Update, AbstractBotUser)}, see {@link MiddlewareChain#next(DispatchContext, AbstractBotUser)}.
+     */
+    default CompletionStage<Void> next(DispatchContext context, U user) {
+        return next(context.getUpdate(), user);
+    }
+}
@@ -0,0 +1,37 @@
+package org.itburger.telegramupdatesdispatcher.generics;
+
+import org.itburger.telegramupdatesdispatcher.exceptions.TelegramMiddlewareException;
+import org.itburger.telegramupdatesdispatcher.models.DispatchContext;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Middleware that may finish after {@link #processAsync} has returned, e.g. after a non-blocking call.
+ * <p>
+ * It is registered in the same list as {@link TelegramMiddleware}. The update is considered processed
+ * when the returned stage completes: synchronous middlewares before it and
+ * {@link org.itburger.telegramupdatesdispatcher.AsyncUpdateDispatcher AsyncUpdateDispatcher} lanes wait for it,
+ * so the order of updates is preserved.
+ */
+public interface AsyncTelegramMiddleware<U extends AbstractBotUser> extends TelegramMiddleware<U> {
+
+    CompletionStage<Void> processAsync(Update update, U user, AsyncMiddlewareChain<U> chain);
+
+    /**
+     * Called by the dispatcher instead of {@link #processAsync(Update, AbstractBotUser, AsyncMiddlewareChain)},
+     * see {@link TelegramMiddleware#process(DispatchContext, AbstractBotUser, MiddlewareChain)}.
+     */
+    default CompletionStage<Void> processAsync(DispatchContext context, U user, AsyncMiddlewareChain<U> chain) {
+        return processAsync(context.getUpdate(), user, chain);
+    }
+
+    @Override
+    default void process(Update update, U user, MiddlewareChain<U> chain) throws TelegramMiddlewareException {
+        processAsync(update, user, (u, usr) -> {
+            chain.next(u, usr);
+            return CompletableFuture.completedStage(null);
+        }).toCompletableFuture().join();
+    }
+}
@@ -0,0 +1,54 @@
+package org.itburger.telegramupdatesdispatcher.generics;
+
+import org.itburger.telegramupdatesdispatcher.models.HandlerKind;
+
+/**
+ * Receiver of dispatcher measurements, set with
+ * {@link org.itburger.telegramupdatesdispatcher.TelegramUpdateDispatcher#setMetrics(DispatchMetrics)}.
+ * <p>
+ * All methods do nothing by default, so an implementation overrides only what it records.
+ * Methods are called on the dispatching thread and must be cheap and thread-safe.
+ * While {@link #NOOP} is set, the dispatcher does not read the clock at all.
+ * Durations are in nanoseconds.
+ */
+public interface DispatchMetrics {
+
+    DispatchMetrics NOOP = new DispatchMetrics() {
+    };
+
+    /**
+     * @param kind kind of handlers the update is routed to, or {@code null} if the update type is not routed
+     */
+    default void updateReceived(HandlerKind kind) {
+    }
+
+    /**
+     * No handler matched the update.
+     *
+     * @param kind same as in {@link #updateReceived(HandlerKind)}
+     */
+    default void updateUnmatched(HandlerKind kind) {
+    }
+
+    /**
+     * @param handler handler method as {@code com.example.Handlers#method}
+     */
+    default void handlerInvoked(String handler, long durationNanos) {
+    }
+
+    default void handlerFailed(String handler, Throwable error) {
+    }
+
+    /**
+     * @param durationNanos time of one {@link AbstractUserService} lookup, single or bulk
+     */
+    default void userLookup(long durationNanos) {
+    }
+
+    /**
+     * @param middleware    class name of the middleware
+     * @param durationNanos time spent in the middleware itself, without the rest of the chain
+     */
+    default void middlewareExecuted(String middleware, long durationNanos) {
+    }
+}
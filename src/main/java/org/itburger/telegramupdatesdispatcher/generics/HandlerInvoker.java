@@ -0,0 +1,16 @@
+package org.itburger.telegramupdatesdispatcher.generics;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * Direct call of a handler method bound to its instance.
+ * Exceptions thrown by the handler are propagated as is.
+ */
+@FunctionalInterface
+public interface HandlerInvoker {
+
+    /**
+     * @return value returned by the handler method, {@code null} for {@code void} methods
+     */
+    Object invoke(Update update, AbstractBotUser user) throws Exception;
+}
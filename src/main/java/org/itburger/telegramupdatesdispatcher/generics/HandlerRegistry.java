@@ -0,0 +1,24 @@
+package org.itburger.telegramupdatesdispatcher.generics;
+
+import org.itburger.telegramupdatesdispatcher.models.HandlerDefinition;
+
+import java.util.List;
+
+/**
+ * Compile-time list of handler methods of one package.
+ * <p>
+ * Implementations are generated by {@link org.itburger.telegramupdatesdispatcher.processor.HandlerRegistryProcessor}
+ * and discovered through {@link java.util.ServiceLoader}. Handlers are still found by the classpath scan,
+ * the dispatcher takes only direct invokers of the scanned methods from the registries and logs a warning
+ * when a registry and the scan disagree.
+ */
+public interface HandlerRegistry {
+
+    /**
+     * @return package of the {@link org.itburger.telegramupdatesdispatcher.annotations.UpdateHandler UpdateHandler}
+     * classes listed by this registry
+     */
+    String getPackageName();
+
+    List<HandlerDefinition> getHandlers();
+}
@@ -1,7 +1,15 @@
 package org.itburger.telegramupdatesdispatcher.generics;
 
+import org.itburger.telegramupdatesdispatcher.models.DispatchContext;
 import org.telegram.telegrambots.meta.api.objects.Update;
 
 public interface MiddlewareChain<U extends AbstractBotUser> {
     void next(Update update, U user);
+
+    /**
+     * Passes the update on together with its context, so the rest of the chain does not create a new one.
+     */
+    default void next(DispatchContext context, U user) {
+        next(context.getUpdate(), user);
+    }
 }
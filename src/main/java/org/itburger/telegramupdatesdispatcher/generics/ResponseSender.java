@@ -0,0 +1,21 @@
+package org.itburger.telegramupdatesdispatcher.generics;
+
+import org.telegram.telegrambots.meta.api.methods.botapimethods.BotApiMethod;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Sends Bot API methods returned by handlers, e.g. {@code method -> telegramClient.executeAsync(method)}.
+ * Called by {@link org.itburger.telegramupdatesdispatcher.responses.ResponseScheduler ResponseScheduler},
+ * which paces the calls.
+ */
+@FunctionalInterface
+public interface ResponseSender {
+
+    /**
+     * @return stage completing with the result of the method, or exceptionally if the request failed;
+     * a {@link org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException TelegramApiRequestException}
+     * with error code 429 and {@code retry_after} is retried by the scheduler
+     */
+    CompletionStage<?> send(BotApiMethod<?> method);
+}
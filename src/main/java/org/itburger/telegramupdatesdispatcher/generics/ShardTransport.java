@@ -0,0 +1,21 @@
+package org.itburger.telegramupdatesdispatcher.generics;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Delivers updates to the node owning them, for
+ * {@link org.itburger.telegramupdatesdispatcher.sharding.ShardRouter ShardRouter}.
+ * <p>
+ * The receiving node passes the update to its own {@code ShardRouter.receive(Update)},
+ * e.g. from an HTTP endpoint or a message queue listener.
+ */
+public interface ShardTransport {
+
+    /**
+     * @return stage that completes when the owner has accepted the update,
+     * or completes exceptionally if it could not be delivered
+     */
+    CompletionStage<Void> forward(String node, Update update);
+}
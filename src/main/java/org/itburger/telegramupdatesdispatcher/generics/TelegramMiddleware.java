@@ -1,8 +1,25 @@
 package org.itburger.telegramupdatesdispatcher.generics;
 
+import org.itburger.telegramupdatesdispatcher.models.DispatchContext;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.itburger.telegramupdatesdispatcher.exceptions.TelegramMiddlewareException;
 
+/**
+ * Blocking middleware: {@code chain.next} returns only when the later middlewares and the handler have completed.
+ * <p>
+ * A middleware in front of asynchronous handlers therefore blocks its thread until their stages complete, also in
+ * {@link org.itburger.telegramupdatesdispatcher.TelegramUpdateDispatcher#dispatchAsync(Update) dispatchAsync}.
+ * Implement {@link AsyncTelegramMiddleware} to avoid that.
+ */
 public interface TelegramMiddleware<U extends AbstractBotUser> {
     void process(Update update, U user, MiddlewareChain<U> chain) throws TelegramMiddlewareException;
+
+    /**
+     * Called by the dispatcher instead of {@link #process(Update, AbstractBotUser, MiddlewareChain)}.
+     * Override it to read the user id, chat id or text from the context instead of inspecting the update again.
+     * Pass the context on with {@link MiddlewareChain#next(DispatchContext, AbstractBotUser)}.
+     */
+    default void process(DispatchContext context, U user, MiddlewareChain<U> chain) throws TelegramMiddlewareException {
+        process(context.getUpdate(), user, chain);
+    }
 }
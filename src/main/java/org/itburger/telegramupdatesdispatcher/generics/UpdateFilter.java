@@ -0,0 +1,30 @@
+package org.itburger.telegramupdatesdispatcher.generics;
+
+import org.itburger.telegramupdatesdispatcher.MethodHandler;
+import org.itburger.telegramupdatesdispatcher.models.FilterDecision;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * Cheap check of an update before any work is done for it, added with
+ * {@link org.itburger.telegramupdatesdispatcher.TelegramUpdateDispatcher#addUpdateFilter(UpdateFilter)}.
+ * <p>
+ * Unlike {@link TelegramMiddleware}, filters run before the user is looked up, so a dropped update
+ * costs neither a call of {@link AbstractUserService} nor routing. Filters are called from the dispatching
+ * threads concurrently and must be thread-safe.
+ */
+public interface UpdateFilter {
+
+    /**
+     * Called before the user lookup.
+     *
+     * @param userId sender of the update, {@code null} if the update has none
+     */
+    FilterDecision beforeLookup(Update update, Long userId);
+
+    /**
+     * Called after the update has been routed, right before the handler is invoked.
+     */
+    default FilterDecision beforeHandler(Update update, Long userId, MethodHandler handler) {
+        return FilterDecision.PASS;
+    }
+}
@@ -0,0 +1,18 @@
+package org.itburger.telegramupdatesdispatcher.generics;
+
+/**
+ * Record of the {@code update_id} values already dispatched, used by
+ * {@link org.itburger.telegramupdatesdispatcher.middlewares.UpdateDeduplicator UpdateDeduplicator}.
+ * <p>
+ * Bots running several instances share one store, e.g. a Redis {@code SET NX} with a TTL,
+ * so an update redelivered to another instance is recognized as well. Implementations must be thread-safe.
+ */
+public interface UpdateIdStore {
+
+    /**
+     * Records the id atomically.
+     *
+     * @return {@code true} if the id was not recorded before, {@code false} if the update is a duplicate
+     */
+    boolean markSeen(int updateId);
+}
@@ -0,0 +1,25 @@
+package org.itburger.telegramupdatesdispatcher.journal;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * Update read from an {@link UpdateJournal} with the time it was recorded.
+ */
+public final class JournalRecord {
+
+    private final long timestampMillis;
+    private final Update update;
+
+    JournalRecord(long timestampMillis, Update update) {
+        this.timestampMillis = timestampMillis;
+        this.update = update;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public Update getUpdate() {
+        return update;
+    }
+}
@@ -0,0 +1,74 @@
+package org.itburger.telegramupdatesdispatcher.journal;
+
+import lombok.extern.slf4j.Slf4j;
+import org.itburger.telegramupdatesdispatcher.TelegramUpdateDispatcher;
+
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds recorded updates back into {@link TelegramUpdateDispatcher#dispatch(org.telegram.telegrambots.meta.api.objects.Update)}
+ * to load-test handlers and user services offline.
+ * <p>
+ * Updates are dispatched one at a time on the calling thread, like a single polling loop. With a speed factor
+ * the original gaps between updates are kept (divided by the factor); when the dispatcher falls behind,
+ * the next update is dispatched immediately and its latency is counted from the moment it was due,
+ * so the report is not flattered by the slowdown. Without a speed factor updates are dispatched back to back.
+ * <p>
+ * Since each update waits for the blocking dispatch of the previous one, the replay measures a single polling
+ * loop; it does not show the throughput or the contention of users dispatched in parallel, e.g. by
+ * {@link org.itburger.telegramupdatesdispatcher.AsyncUpdateDispatcher}.
+ *
+ * <pre>{@code
+ * ReplayReport report = new JournalReplayer(dispatcher).replay(UpdateJournal.read(path), 1.0);
+ * }</pre>
+ */
+@Slf4j
+public class JournalReplayer {
+
+    private final TelegramUpdateDispatcher<?> dispatcher;
+
+    public JournalReplayer(TelegramUpdateDispatcher<?> dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Dispatches the records as fast as possible.
+     */
+    public ReplayReport replay(List<JournalRecord> records) {
+        return replay(records, 0);
+    }
+
+    /**
+     * @param speed {@code 1} for the original timing, {@code 2} for twice as fast, etc.;
+     *              {@code 0} to dispatch as fast as possible
+     */
+    public ReplayReport replay(List<JournalRecord> records, double speed) {
+        if (speed < 0 || Double.isNaN(speed)) {
+            throw new IllegalArgumentException("speed must not be negative");
+        }
+        long[] latencies = new long[records.size()];
+        int errors = 0;
+        long firstTimestamp = records.isEmpty() ? 0 : records.get(0).getTimestampMillis();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < latencies.length; i++) {
+            JournalRecord record = records.get(i);
+            long due = System.nanoTime();
+            if (speed > 0) {
+                due = start + (long) ((record.getTimestampMillis() - firstTimestamp) * 1_000_000d / speed);
+                for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            try {
+                dispatcher.dispatch(record.getUpdate());
+            } catch (RuntimeException e) {
+                errors++;
+                log.debug("Replayed update {} failed", record.getUpdate().getUpdateId(), e);
+            }
+            latencies[i] = System.nanoTime() - due;
+        }
+        return new ReplayReport(latencies, errors, System.nanoTime() - start);
+    }
+}
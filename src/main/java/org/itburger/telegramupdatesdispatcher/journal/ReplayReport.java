@@ -0,0 +1,64 @@
+package org.itburger.telegramupdatesdispatcher.journal;
+
+import java.util.Arrays;
+
+/**
+ * Throughput and dispatch latency of a {@link JournalReplayer} run.
+ */
+public final class ReplayReport {
+
+    private final long[] sortedLatencies;
+    private final int errorCount;
+    private final long durationNanos;
+
+    ReplayReport(long[] latencies, int errorCount, long durationNanos) {
+        this.sortedLatencies = latencies;
+        Arrays.sort(sortedLatencies);
+        this.errorCount = errorCount;
+        this.durationNanos = durationNanos;
+    }
+
+    public int getUpdateCount() {
+        return sortedLatencies.length;
+    }
+
+    /**
+     * Updates whose dispatch threw an exception; they are included in the latencies.
+     */
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    public double getUpdatesPerSecond() {
+        return durationNanos == 0 ? 0 : sortedLatencies.length * 1_000_000_000d / durationNanos;
+    }
+
+    /**
+     * @param percentile from {@code 0} to {@code 100}, e.g. {@code 99.9}
+     * @return latency in nanoseconds not exceeded by the given share of updates, {@code 0} if nothing was replayed
+     */
+    public long getLatencyNanos(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        if (sortedLatencies.length == 0) return 0;
+        int rank = (int) Math.ceil(percentile / 100 * sortedLatencies.length);
+        return sortedLatencies[Math.max(rank - 1, 0)];
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ReplayReport{updates=%d, errors=%d, throughput=%.1f/s, p50=%.3fms, p90=%.3fms, "
+                        + "p99=%.3fms, p99.9=%.3fms, max=%.3fms}",
+                getUpdateCount(), errorCount, getUpdatesPerSecond(), millis(50), millis(90), millis(99),
+                millis(99.9), millis(100));
+    }
+
+    private double millis(double percentile) {
+        return getLatencyNanos(percentile) / 1_000_000d;
+    }
+}
@@ -0,0 +1,70 @@
+package org.itburger.telegramupdatesdispatcher.journal;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary journal of updates written by {@link UpdateRecorder}.
+ * <p>
+ * The file starts with the 4-byte magic {@code TGJ1}, followed by records of a 4-byte payload length,
+ * an 8-byte epoch millisecond timestamp and the update as JSON without {@code null} fields, big-endian.
+ * A record cut short by a crash is ignored when reading.
+ */
+public final class UpdateJournal {
+
+    static final int MAGIC = 0x54474A31;
+    static final int HEADER_SIZE = 4;
+    static final int RECORD_HEADER_SIZE = 12;
+
+    static final ObjectMapper MAPPER = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private UpdateJournal() {
+    }
+
+    /**
+     * Reads the whole journal into memory, so that parsing does not distort a {@link JournalReplayer replay}.
+     *
+     * @throws IOException if the file cannot be read or is not a journal
+     */
+    public static List<JournalRecord> read(Path path) throws IOException {
+        List<JournalRecord> records = new ArrayList<>();
+        try (InputStream file = Files.newInputStream(path);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file, 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(path + " is not an update journal");
+            }
+            byte[] payload = new byte[4096];
+            while (true) {
+                int length;
+                long timestamp;
+                try {
+                    length = in.readInt();
+                    timestamp = in.readLong();
+                    if (length < 0) throw new IOException("Corrupted record length " + length + " in " + path);
+                    if (payload.length < length) payload = new byte[Math.max(length, payload.length * 2)];
+                    in.readFully(payload, 0, length);
+                } catch (EOFException e) {
+                    // Конец файла или запись, не дописанная до конца
+                    break;
+                }
+                Update update = MAPPER.readValue(payload, 0, length, Update.class);
+                records.add(new JournalRecord(timestamp, update));
+            }
+        }
+        return records;
+    }
+}
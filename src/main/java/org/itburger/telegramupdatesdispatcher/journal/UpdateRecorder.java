@@ -0,0 +1,127 @@
+package org.itburger.telegramupdatesdispatcher.journal;
+
+import lombok.extern.slf4j.Slf4j;
+import org.itburger.telegramupdatesdispatcher.generics.UpdateFilter;
+import org.itburger.telegramupdatesdispatcher.models.FilterDecision;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends every update entering the dispatcher to an {@link UpdateJournal}, to replay production traffic
+ * later with {@link JournalReplayer}.
+ * <p>
+ * The recorder is an {@link UpdateFilter} that always passes: added first, it records updates before the user
+ * lookup, including the ones later filters drop. Updates are serialized on the dispatching threads, and each
+ * record reaches the {@link FileChannel} with a single write. An update that cannot be written is logged
+ * and still dispatched. An existing journal is appended to; a record its last writer left cut short by a crash
+ * is truncated first, so the new records stay readable, and a file that is not a journal is rejected.
+ *
+ * <pre>{@code
+ * UpdateRecorder recorder = new UpdateRecorder(Path.of("updates.journal"));
+ * dispatcher.addUpdateFilter(recorder);
+ * }</pre>
+ */
+@Slf4j
+public class UpdateRecorder implements UpdateFilter, Closeable {
+
+    private final FileChannel channel;
+
+    /**
+     * @throws IOException if the file cannot be opened or is not an update journal
+     */
+    public UpdateRecorder(Path path) throws IOException {
+        truncateTornRecord(path);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        if (channel.size() == 0) {
+            write(ByteBuffer.allocate(UpdateJournal.HEADER_SIZE).putInt(0, UpdateJournal.MAGIC));
+        }
+    }
+
+    @Override
+    public FilterDecision beforeLookup(Update update, Long userId) {
+        try {
+            record(System.currentTimeMillis(), update);
+        } catch (IOException e) {
+            log.error("Failed to record update {}", update.getUpdateId(), e);
+        }
+        return FilterDecision.PASS;
+    }
+
+    /**
+     * Appends the update with the given timestamp, e.g. when converting updates logged elsewhere.
+     */
+    public void record(long timestampMillis, Update update) throws IOException {
+        byte[] json = UpdateJournal.MAPPER.writeValueAsBytes(update);
+        ByteBuffer record = ByteBuffer.allocate(UpdateJournal.RECORD_HEADER_SIZE + json.length)
+                .putInt(json.length)
+                .putLong(timestampMillis)
+                .put(json)
+                .flip();
+        synchronized (this) {
+            write(record);
+        }
+    }
+
+    /**
+     * Forces written records to the storage device.
+     */
+    public void flush() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Новые записи после недописанной оказались бы за ней, а чтение журнала на ней останавливается
+    private static void truncateTornRecord(Path path) throws IOException {
+        if (!Files.exists(path)) return;
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = file.size();
+            if (size == 0) return;
+            ByteBuffer header = ByteBuffer.allocate(UpdateJournal.RECORD_HEADER_SIZE);
+            if (size < UpdateJournal.HEADER_SIZE) {
+                // Падение сразу после создания файла
+                file.truncate(0);
+                return;
+            }
+            if (readFully(file, header.limit(UpdateJournal.HEADER_SIZE), 0).getInt(0) != UpdateJournal.MAGIC) {
+                throw new IOException(path + " is not an update journal");
+            }
+            long position = UpdateJournal.HEADER_SIZE;
+            while (position + UpdateJournal.RECORD_HEADER_SIZE <= size) {
+                int length = readFully(file, header.clear(), position).getInt(0);
+                if (length < 0) throw new IOException("Corrupted record length " + length + " in " + path);
+                if (position + UpdateJournal.RECORD_HEADER_SIZE + length > size) break;
+                position += UpdateJournal.RECORD_HEADER_SIZE + length;
+            }
+            if (position < size) {
+                log.warn("Truncating a record cut short at offset {} of {}", position, path);
+                file.truncate(position);
+            }
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel file, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, position + buffer.position()) < 0) throw new EOFException();
+        }
+        return buffer;
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.itburger.telegramupdatesdispatcher.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.itburger.telegramupdatesdispatcher.generics.DispatchMetrics;
+import org.itburger.telegramupdatesdispatcher.models.HandlerKind;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DispatchMetrics} backed by a Micrometer {@link MeterRegistry}.
+ * <p>
+ * Requires {@code io.micrometer:micrometer-core} on the classpath, the dependency of this library is optional.
+ * Meters, all prefixed with {@code telegram.dispatcher}:
+ * <ul>
+ *     <li>{@code .updates} counter, tag {@code kind}</li>
+ *     <li>{@code .updates.unmatched} counter, tag {@code kind}</li>
+ *     <li>{@code .handler} timer with percentile histogram, tag {@code handler}</li>
+ *     <li>{@code .handler.errors} counter, tags {@code handler} and {@code exception}</li>
+ *     <li>{@code .user.lookup} timer</li>
+ *     <li>{@code .middleware} timer, tag {@code middleware}</li>
+ * </ul>
+ *
+ * <pre>{@code
+ * dispatcher.setMetrics(new MicrometerDispatchMetrics(meterRegistry));
+ * }</pre>
+ */
+public class MicrometerDispatchMetrics implements DispatchMetrics {
+
+    private static final String PREFIX = "telegram.dispatcher";
+    // Тег для обновлений, которые диспетчер не маршрутизирует
+    private static final String UNROUTED = "unrouted";
+
+    private final MeterRegistry registry;
+    private final Timer userLookup;
+    private final ConcurrentHashMap<HandlerKind, Counter> updates = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<HandlerKind, Counter> unmatched = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Timer> handlers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Timer> middlewares = new ConcurrentHashMap<>();
+    private final Counter unroutedUpdates;
+    private final Counter unroutedUnmatched;
+
+    public MicrometerDispatchMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.userLookup = Timer.builder(PREFIX + ".user.lookup")
+                .description("User lookups in AbstractUserService")
+                .register(registry);
+        this.unroutedUpdates = updatesCounter(PREFIX + ".updates", UNROUTED);
+        this.unroutedUnmatched = updatesCounter(PREFIX + ".updates.unmatched", UNROUTED);
+    }
+
+    @Override
+    public void updateReceived(HandlerKind kind) {
+        if (kind == null) {
+            unroutedUpdates.increment();
+            return;
+        }
+        updates.computeIfAbsent(kind, k -> updatesCounter(PREFIX + ".updates", k.name())).increment();
+    }
+
+    @Override
+    public void updateUnmatched(HandlerKind kind) {
+        if (kind == null) {
+            unroutedUnmatched.increment();
+            return;
+        }
+        unmatched.computeIfAbsent(kind, k -> updatesCounter(PREFIX + ".updates.unmatched", k.name())).increment();
+    }
+
+    @Override
+    public void handlerInvoked(String handler, long durationNanos) {
+        handlers.computeIfAbsent(handler, h -> Timer.builder(PREFIX + ".handler")
+                .tag("handler", h)
+                .publishPercentileHistogram()
+                .register(registry)
+        ).record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void handlerFailed(String handler, Throwable error) {
+        // Ошибки редки, поэтому счётчик ищется в реестре без своего кэша
+        Counter.builder(PREFIX + ".handler.errors")
+                .tag("handler", handler)
+                .tag("exception", error.getClass().getSimpleName())
+                .register(registry)
+                .increment();
+    }
+
+    @Override
+    public void userLookup(long durationNanos) {
+        userLookup.record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void middlewareExecuted(String middleware, long durationNanos) {
+        middlewares.computeIfAbsent(middleware, m -> Timer.builder(PREFIX + ".middleware")
+                .tag("middleware", m)
+                .register(registry)
+        ).record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Counter updatesCounter(String name, String kind) {
+        return Counter.builder(name)
+                .tag("kind", kind)
+                .register(registry);
+    }
+}
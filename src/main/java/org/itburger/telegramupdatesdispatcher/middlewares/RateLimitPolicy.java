@@ -0,0 +1,64 @@
+package org.itburger.telegramupdatesdispatcher.middlewares;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.time.Duration;
+import java.util.function.BiConsumer;
+
+/**
+ * What {@link RateLimiter} does with an update over the limit.
+ */
+public final class RateLimitPolicy {
+
+    enum Type {
+        DROP, QUEUE, NOTIFY
+    }
+
+    private static final RateLimitPolicy DROP = new RateLimitPolicy(Type.DROP, 0, null);
+
+    private final Type type;
+    private final long maxDelayNanos;
+    private final BiConsumer<Update, Long> notifier;
+
+    private RateLimitPolicy(Type type, long maxDelayNanos, BiConsumer<Update, Long> notifier) {
+        this.type = type;
+        this.maxDelayNanos = maxDelayNanos;
+        this.notifier = notifier;
+    }
+
+    /**
+     * Silently drops the update.
+     */
+    public static RateLimitPolicy drop() {
+        return DROP;
+    }
+
+    /**
+     * Delays the update until the user has a permit again, if that happens within {@code maxDelay};
+     * otherwise drops it. The user's updates keep their order in
+     * {@link org.itburger.telegramupdatesdispatcher.AsyncUpdateDispatcher AsyncUpdateDispatcher}.
+     */
+    public static RateLimitPolicy queue(Duration maxDelay) {
+        return new RateLimitPolicy(Type.QUEUE, maxDelay.toNanos(), null);
+    }
+
+    /**
+     * Drops the update and calls {@code notifier} with the update and the user id,
+     * once per flood: the next notification is sent only after the user has passed the limit again.
+     */
+    public static RateLimitPolicy notify(BiConsumer<Update, Long> notifier) {
+        return new RateLimitPolicy(Type.NOTIFY, 0, notifier);
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    long getMaxDelayNanos() {
+        return maxDelayNanos;
+    }
+
+    BiConsumer<Update, Long> getNotifier() {
+        return notifier;
+    }
+}
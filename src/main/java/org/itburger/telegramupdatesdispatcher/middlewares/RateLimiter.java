@@ -0,0 +1,87 @@
+package org.itburger.telegramupdatesdispatcher.middlewares;
+
+import lombok.extern.slf4j.Slf4j;
+import org.itburger.telegramupdatesdispatcher.MethodHandler;
+import org.itburger.telegramupdatesdispatcher.annotations.RateLimit;
+import org.itburger.telegramupdatesdispatcher.generics.UpdateFilter;
+import org.itburger.telegramupdatesdispatcher.models.FilterDecision;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-user token bucket rate limiter.
+ * <p>
+ * Every user may send {@code burst} updates at once and {@code permitsPerSecond} updates per second after that.
+ * The limit is checked before the user is looked up, so updates over the limit cost only a table lookup.
+ * Handler methods annotated with {@link RateLimit @RateLimit} get their own limit per user on top of it.
+ * Buckets of at most {@code maxTrackedUsers} users are kept; idle users are evicted first.
+ * Updates without a user are not limited.
+ *
+ * <pre>{@code
+ * dispatcher.addUpdateFilter(new RateLimiter(1, 5, RateLimitPolicy.queue(Duration.ofSeconds(3))));
+ * }</pre>
+ */
+@Slf4j
+public class RateLimiter implements UpdateFilter {
+
+    private static final int DEFAULT_MAX_TRACKED_USERS = 100_000;
+    // Для лимитов отдельных обработчиков достаточно таблицы поменьше
+    private static final int HANDLER_TRACKED_USERS_DIVISOR = 8;
+
+    private final TokenBuckets buckets;
+    private final RateLimitPolicy policy;
+    private final int maxTrackedUsers;
+    private final ConcurrentHashMap<MethodHandler, Optional<TokenBuckets>> handlerBuckets = new ConcurrentHashMap<>();
+
+    public RateLimiter(double permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, RateLimitPolicy.drop());
+    }
+
+    public RateLimiter(double permitsPerSecond, int burst, RateLimitPolicy policy) {
+        this(permitsPerSecond, burst, policy, DEFAULT_MAX_TRACKED_USERS);
+    }
+
+    public RateLimiter(double permitsPerSecond, int burst, RateLimitPolicy policy, int maxTrackedUsers) {
+        this.buckets = new TokenBuckets(permitsPerSecond, burst, maxTrackedUsers);
+        this.policy = policy;
+        this.maxTrackedUsers = maxTrackedUsers;
+    }
+
+    @Override
+    public FilterDecision beforeLookup(Update update, Long userId) {
+        if (userId == null) return FilterDecision.PASS;
+        return decide(buckets, update, userId);
+    }
+
+    @Override
+    public FilterDecision beforeHandler(Update update, Long userId, MethodHandler handler) {
+        if (userId == null) return FilterDecision.PASS;
+        Optional<TokenBuckets> limit = handlerBuckets.computeIfAbsent(handler, this::createHandlerBuckets);
+        return limit.isPresent() ? decide(limit.get(), update, userId) : FilterDecision.PASS;
+    }
+
+    private FilterDecision decide(TokenBuckets buckets, Update update, long userId) {
+        long result = buckets.acquire(userId, policy.getMaxDelayNanos());
+        if (result == 0) return FilterDecision.PASS;
+        if (result > 0) return FilterDecision.delay(result);
+
+        log.debug("Update {} of user {} dropped by rate limit", update.getUpdateId(), userId);
+        if (result == TokenBuckets.REJECTED_FIRST && policy.getType() == RateLimitPolicy.Type.NOTIFY) {
+            try {
+                policy.getNotifier().accept(update, userId);
+            } catch (Exception e) {
+                log.error("Rate limit notification failed for user " + userId, e);
+            }
+        }
+        return FilterDecision.DROP;
+    }
+
+    private Optional<TokenBuckets> createHandlerBuckets(MethodHandler handler) {
+        RateLimit limit = handler.getMethod().getAnnotation(RateLimit.class);
+        if (limit == null) return Optional.empty();
+        int tracked = Math.max(1, maxTrackedUsers / HANDLER_TRACKED_USERS_DIVISOR);
+        return Optional.of(new TokenBuckets(limit.permitsPerSecond(), limit.burst(), tracked));
+    }
+}
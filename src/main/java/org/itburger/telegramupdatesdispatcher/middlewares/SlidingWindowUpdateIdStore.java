@@ -0,0 +1,129 @@
+package org.itburger.telegramupdatesdispatcher.middlewares;
+
+import lombok.extern.slf4j.Slf4j;
+import org.itburger.telegramupdatesdispatcher.generics.UpdateIdStore;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * In-memory {@link UpdateIdStore} for a single bot instance.
+ * <p>
+ * Telegram numbers updates sequentially, so the store keeps one bit per id for a window of the latest
+ * {@code windowSize} ids in a ring bitmap: 64 Ki ids take 8 KiB, whatever the traffic. Moving the window
+ * forward clears the bits of the ids it passes. An id older than the window is a stale redelivery and is
+ * reported as seen, leaving the window untouched. Telegram may restart numbering from a random value after
+ * a week without updates, so an id below the window is taken for the start of a new sequence when no id has been
+ * accepted for {@code restartIdle}, or when it is at least {@code restartGap} below the window: the window is reset
+ * and the update passes. A run of consecutive ids dropped as stale is logged, it means a new sequence was missed.
+ */
+@Slf4j
+public class SlidingWindowUpdateIdStore implements UpdateIdStore {
+
+    private static final int DEFAULT_WINDOW_SIZE = 1 << 16;
+    private static final long DEFAULT_RESTART_GAP = 1 << 24;
+    private static final Duration DEFAULT_RESTART_IDLE = Duration.ofHours(1);
+    // Повторные доставки приходят вразнобой, подряд идущие старые номера похожи на новую последовательность
+    private static final int STALE_RUN_WARNING = 16;
+
+    private final long[] bits;
+    private final int mask;
+    private final long restartGap;
+    private final long restartIdleNanos;
+    private long highest;
+    private boolean empty = true;
+    private long lastAcceptedNanos;
+    private long staleRunEnd;
+    private int staleRun;
+
+    public SlidingWindowUpdateIdStore() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param windowSize number of latest ids remembered, rounded up to a power of two, at least 64
+     */
+    public SlidingWindowUpdateIdStore(int windowSize) {
+        this(windowSize, DEFAULT_RESTART_GAP);
+    }
+
+    /**
+     * @param windowSize number of latest ids remembered, rounded up to a power of two, at least 64
+     * @param restartGap how far below the window an id must be to be taken for a new sequence
+     */
+    public SlidingWindowUpdateIdStore(int windowSize, long restartGap) {
+        this(windowSize, restartGap, DEFAULT_RESTART_IDLE);
+    }
+
+    /**
+     * @param windowSize number of latest ids remembered, rounded up to a power of two, at least 64
+     * @param restartGap how far below the window an id must be to be taken for a new sequence
+     * @param restartIdle how long no id must have been accepted for any id below the window to be taken
+     *                    for a new sequence; Telegram restarts numbering only after a week without updates
+     */
+    public SlidingWindowUpdateIdStore(int windowSize, long restartGap, Duration restartIdle) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be positive");
+        }
+        if (restartGap < 1) {
+            throw new IllegalArgumentException("restartGap must be positive");
+        }
+        if (restartIdle.isNegative() || restartIdle.isZero()) {
+            throw new IllegalArgumentException("restartIdle must be positive");
+        }
+        int size = Math.max(64, Integer.highestOneBit(windowSize - 1) << 1);
+        this.bits = new long[size >>> 6];
+        this.mask = size - 1;
+        this.restartGap = restartGap;
+        this.restartIdleNanos = restartIdle.toNanos();
+    }
+
+    @Override
+    public synchronized boolean markSeen(int updateId) {
+        long id = updateId;
+        long now = System.nanoTime();
+        long windowStart = highest - bits.length * 64L;
+        if (empty || id <= windowStart && (id <= windowStart - restartGap || now - lastAcceptedNanos >= restartIdleNanos)) {
+            // Первое обновление или новая последовательность номеров
+            Arrays.fill(bits, 0);
+            highest = id;
+            empty = false;
+        } else if (id <= windowStart) {
+            // Старое повторное обновление не должно сбрасывать память о последних номерах
+            staleDropped(id);
+            return false;
+        } else if (id > highest) {
+            advance(id);
+        }
+
+        int index = (int) (id & mask);
+        long bit = 1L << index;
+        int word = index >>> 6;
+        if ((bits[word] & bit) != 0) return false;
+        bits[word] |= bit;
+        lastAcceptedNanos = now;
+        staleRun = 0;
+        return true;
+    }
+
+    private void staleDropped(long id) {
+        staleRun = id == staleRunEnd + 1 ? staleRun + 1 : 1;
+        staleRunEnd = id;
+        if (staleRun == STALE_RUN_WARNING) {
+            log.warn("Dropped {} consecutive update ids up to {} as older than the window ending at {}; "
+                    + "if Telegram has restarted numbering, lower restartGap or restartIdle", staleRun, id, highest);
+        }
+    }
+
+    private void advance(long id) {
+        if (id - highest >= bits.length * 64L) {
+            Arrays.fill(bits, 0);
+        } else {
+            for (long cleared = highest + 1; cleared <= id; cleared++) {
+                int index = (int) (cleared & mask);
+                bits[index >>> 6] &= ~(1L << index);
+            }
+        }
+        highest = id;
+    }
+}
@@ -0,0 +1,120 @@
+package org.itburger.telegramupdatesdispatcher.middlewares;
+
+/**
+ * Token buckets keyed by a primitive id in a fixed amount of memory.
+ * <p>
+ * Buckets live in lock-striped, 4-way set-associative tables: an id can only occupy one of four slots,
+ * and a new id replaces the slot touched longest ago. The bucket of an idle user has refilled anyway,
+ * so evicting it loses nothing; the table never grows and lookups allocate nothing.
+ */
+final class TokenBuckets {
+
+    static final long REJECTED = -1;
+    // Первый отказ с момента последнего успешного запроса, по нему отправляется уведомление
+    static final long REJECTED_FIRST = -2;
+
+    private static final int WAYS = 4;
+
+    private final double permitsPerNano;
+    private final double burst;
+    private final Stripe[] stripes;
+    private final int stripeBits;
+    private final int setMask;
+
+    TokenBuckets(double permitsPerSecond, int burst, int maxTrackedIds) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be positive");
+        }
+        if (maxTrackedIds < 1) {
+            throw new IllegalArgumentException("maxTrackedIds must be positive");
+        }
+        this.permitsPerNano = permitsPerSecond / 1_000_000_000d;
+        this.burst = burst;
+
+        int stripeCount = Math.min(64, ceilPowerOfTwo(Runtime.getRuntime().availableProcessors() * 4));
+        int setsPerStripe = ceilPowerOfTwo((maxTrackedIds + stripeCount * WAYS - 1) / (stripeCount * WAYS));
+        this.stripeBits = Integer.numberOfTrailingZeros(stripeCount);
+        this.setMask = setsPerStripe - 1;
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(setsPerStripe * WAYS);
+        }
+    }
+
+    /**
+     * Takes a permit from the bucket of the id.
+     *
+     * @param maxWaitNanos how long the caller is ready to wait for a permit; the permit is reserved in advance
+     * @return {@code 0} if a permit was taken, a positive delay after which the reserved permit may be used,
+     * or {@link #REJECTED} / {@link #REJECTED_FIRST} if the wait would be longer than {@code maxWaitNanos}
+     */
+    long acquire(long id, long maxWaitNanos) {
+        int hash = Long.hashCode(id * 0x9E3779B97F4A7C15L);
+        Stripe stripe = stripes[hash & (stripes.length - 1)];
+        int base = ((hash >>> stripeBits) & setMask) * WAYS;
+        long now = System.nanoTime();
+
+        synchronized (stripe) {
+            int slot = stripe.find(id, base, now, burst);
+            double tokens = Math.min(burst, stripe.tokens[slot] + (now - stripe.touched[slot]) * permitsPerNano);
+            stripe.touched[slot] = now;
+
+            if (tokens >= 1) {
+                stripe.tokens[slot] = tokens - 1;
+                stripe.notified[slot] = false;
+                return 0;
+            }
+            long wait = (long) Math.ceil((1 - tokens) / permitsPerNano);
+            if (wait <= maxWaitNanos) {
+                // Разрешение резервируется заранее, баланс уходит в минус
+                stripe.tokens[slot] = tokens - 1;
+                return wait;
+            }
+            stripe.tokens[slot] = tokens;
+            if (stripe.notified[slot]) return REJECTED;
+            stripe.notified[slot] = true;
+            return REJECTED_FIRST;
+        }
+    }
+
+    private static int ceilPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    private static final class Stripe {
+        private final long[] ids;
+        private final long[] touched;
+        private final double[] tokens;
+        private final boolean[] used;
+        private final boolean[] notified;
+
+        private Stripe(int slots) {
+            this.ids = new long[slots];
+            this.touched = new long[slots];
+            this.tokens = new double[slots];
+            this.used = new boolean[slots];
+            this.notified = new boolean[slots];
+        }
+
+        private int find(long id, int base, long now, double burst) {
+            int victim = base;
+            for (int slot = base; slot < base + WAYS; slot++) {
+                if (!used[slot]) {
+                    victim = slot;
+                    break;
+                }
+                if (ids[slot] == id) return slot;
+                if (touched[slot] - touched[victim] < 0) victim = slot;
+            }
+            ids[victim] = id;
+            used[victim] = true;
+            touched[victim] = now;
+            tokens[victim] = burst;
+            notified[victim] = false;
+            return victim;
+        }
+    }
+}
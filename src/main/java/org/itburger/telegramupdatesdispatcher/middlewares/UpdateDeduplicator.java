@@ -0,0 +1,42 @@
+package org.itburger.telegramupdatesdispatcher.middlewares;
+
+import lombok.extern.slf4j.Slf4j;
+import org.itburger.telegramupdatesdispatcher.generics.UpdateFilter;
+import org.itburger.telegramupdatesdispatcher.generics.UpdateIdStore;
+import org.itburger.telegramupdatesdispatcher.models.FilterDecision;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * Drops updates whose {@code update_id} has already been dispatched, e.g. webhook retries of a slow response
+ * or updates fetched by two overlapping pollers during a deploy.
+ * <p>
+ * Duplicates are dropped before the user lookup. Add the deduplicator before other filters,
+ * so a duplicate does not take a {@link RateLimiter} permit. An update is recorded when it enters
+ * the dispatcher, so a redelivery is dropped even if the first delivery failed in a handler.
+ *
+ * <pre>{@code
+ * dispatcher.addUpdateFilter(new UpdateDeduplicator());
+ * }</pre>
+ */
+@Slf4j
+public class UpdateDeduplicator implements UpdateFilter {
+
+    private final UpdateIdStore store;
+
+    public UpdateDeduplicator() {
+        this(new SlidingWindowUpdateIdStore());
+    }
+
+    public UpdateDeduplicator(UpdateIdStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public FilterDecision beforeLookup(Update update, Long userId) {
+        Integer updateId = update.getUpdateId();
+        if (updateId == null || store.markSeen(updateId)) return FilterDecision.PASS;
+
+        log.debug("Duplicate update {} dropped", updateId);
+        return FilterDecision.DROP;
+    }
+}
@@ -10,6 +10,12 @@ import org.itburger.telegramupdatesdispatcher.generics.TelegramMiddleware;
 
 import java.util.List;
 
+/**
+ * Single-use chain over a middleware list.
+ *
+ * @deprecated the dispatcher runs middlewares through a precompiled {@link MiddlewarePipeline}
+ */
+@Deprecated
 @Slf4j
 public class DefaultMiddlewareChain<U extends AbstractBotUser> implements MiddlewareChain<U> {
 
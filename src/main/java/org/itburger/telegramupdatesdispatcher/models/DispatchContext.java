@@ -0,0 +1,192 @@
+package org.itburger.telegramupdatesdispatcher.models;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.User;
+import org.telegram.telegrambots.meta.api.objects.message.Message;
+
+import java.util.List;
+
+/**
+ * Typed view of one update, created once when the update enters the dispatcher.
+ * <p>
+ * The update is classified into the {@link HandlerKind} it is routed to on first access;
+ * the sender, chat and text are extracted on first access as well and then cached,
+ * so routing, filters, middlewares and handlers do not inspect the update again.
+ * A context belongs to one update and is not meant to be shared between threads while it is being filled.
+ * <p>
+ * A media group is dispatched to {@link HandlerKind#ALBUM} handlers with one context holding all its updates,
+ * see {@link #ofAlbum(List)}.
+ */
+public final class DispatchContext {
+
+    private final Update update;
+    private final List<Update> album;
+    private HandlerKind kind;
+    private boolean kindResolved;
+    private User from;
+    private boolean fromResolved;
+    private Long chatId;
+    private boolean chatIdResolved;
+    private String text;
+    private boolean textResolved;
+
+    public DispatchContext(Update update) {
+        this(update, null);
+    }
+
+    private DispatchContext(Update update, List<Update> album) {
+        this.update = update;
+        this.album = album;
+    }
+
+    /**
+     * @param album updates of one media group, sorted by message id; the first one becomes {@link #getUpdate()}
+     */
+    public static DispatchContext ofAlbum(List<Update> album) {
+        if (album.isEmpty()) {
+            throw new IllegalArgumentException("Album must contain at least one update");
+        }
+        return new DispatchContext(album.get(0), List.copyOf(album));
+    }
+
+    public boolean isAlbum() {
+        return album != null;
+    }
+
+    /**
+     * @return updates of the media group for an {@link #ofAlbum(List) album} context, otherwise the update itself
+     */
+    public List<Update> getAlbum() {
+        return album != null ? album : List.of(update);
+    }
+
+    public Update getUpdate() {
+        return update;
+    }
+
+    /**
+     * @return kind of handlers the update is routed to, or {@code null} if no handler kind accepts it
+     */
+    public HandlerKind getKind() {
+        if (!kindResolved) {
+            kind = album != null ? HandlerKind.ALBUM : classify(update);
+            kindResolved = true;
+        }
+        return kind;
+    }
+
+    /**
+     * @return Telegram id of the sender, or {@code null} if the update has none
+     */
+    public Long getUserId() {
+        User user = getFrom();
+        return user != null ? user.getId() : null;
+    }
+
+    /**
+     * @return language code the sender's Telegram client reports, or {@code null}
+     */
+    public String getLangCode() {
+        User user = getFrom();
+        return user != null ? user.getLanguageCode() : null;
+    }
+
+    /**
+     * @return id of the chat the update came from, or {@code null} if the update is not bound to a chat
+     */
+    public Long getChatId() {
+        if (!chatIdResolved) {
+            if (update.getMessage() != null) {
+                chatId = update.getMessage().getChatId();
+            } else if (update.getCallbackQuery() != null && update.getCallbackQuery().getMessage() != null) {
+                chatId = update.getCallbackQuery().getMessage().getChatId();
+            }
+            chatIdResolved = true;
+        }
+        return chatId;
+    }
+
+    /**
+     * @return text handlers of {@link #getKind()} are matched against: message text, callback data
+     * or inline query; {@code null} if there is none
+     */
+    public String getText() {
+        if (!textResolved) {
+            HandlerKind kind = getKind();
+            text = kind != null ? textOf(kind, update) : null;
+            textResolved = true;
+        }
+        return text;
+    }
+
+    private User getFrom() {
+        if (!fromResolved) {
+            from = sender(update);
+            fromResolved = true;
+        }
+        return from;
+    }
+
+    /**
+     * @return text handlers of the given kind are matched against, or {@code null} if the update has none
+     */
+    public static String textOf(HandlerKind kind, Update update) {
+        switch (kind) {
+            case MESSAGE:
+            case COMMAND:
+                if (update.getMessage() != null && update.getMessage().getText() != null) {
+                    return update.getMessage().getText();
+                }
+                break;
+            case CALLBACK_QUERY:
+                if (update.getCallbackQuery() != null) {
+                    return update.getCallbackQuery().getData();
+                }
+                break;
+            case INLINE_QUERY:
+                if (update.getInlineQuery() != null) {
+                    return update.getInlineQuery().getQuery();
+                }
+                break;
+            case BUSINESS_MESSAGE:
+            case BUSINESS_CALLBACK_QUERY:
+                return ""; // Пока не реализовано
+            default:
+                break;
+        }
+        return null;
+    }
+
+    private static HandlerKind classify(Update update) {
+        Message message = update.getMessage();
+        if (message != null && message.isUserMessage()) {
+            if (message.isCommand()) return HandlerKind.COMMAND;
+            if (message.hasPhoto()) return HandlerKind.PHOTO;
+            if (message.hasVideo()) return HandlerKind.VIDEO;
+            if (message.hasDocument()) return HandlerKind.DOCUMENT;
+            if (message.hasVoice()) return HandlerKind.VOICE;
+            if (message.hasAudio()) return HandlerKind.AUDIO;
+            if (message.hasSuccessfulPayment()) return HandlerKind.SUCCESSFUL_PAYMENT;
+            return HandlerKind.MESSAGE;
+        }
+        if (update.hasCallbackQuery() && update.getCallbackQuery().getMessage() != null
+                && update.getCallbackQuery().getMessage().isUserMessage()) {
+            return HandlerKind.CALLBACK_QUERY;
+        }
+        if (update.hasInlineQuery()) return HandlerKind.INLINE_QUERY;
+        if (update.hasPreCheckoutQuery()) return HandlerKind.PRE_CHECKOUT_QUERY;
+        return null;
+    }
+
+    private static User sender(Update update) {
+        if (update.getMessage() != null && update.getMessage().getFrom() != null)
+            return update.getMessage().getFrom();
+        if (update.getCallbackQuery() != null && update.getCallbackQuery().getFrom() != null)
+            return update.getCallbackQuery().getFrom();
+        if (update.getInlineQuery() != null && update.getInlineQuery().getFrom() != null)
+            return update.getInlineQuery().getFrom();
+        if (update.getPreCheckoutQuery() != null && update.getPreCheckoutQuery().getFrom() != null)
+            return update.getPreCheckoutQuery().getFrom();
+        return null;
+    }
+}
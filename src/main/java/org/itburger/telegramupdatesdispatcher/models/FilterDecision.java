@@ -0,0 +1,38 @@
+package org.itburger.telegramupdatesdispatcher.models;
+
+import java.time.Duration;
+
+/**
+ * Outcome of an {@link org.itburger.telegramupdatesdispatcher.generics.UpdateFilter UpdateFilter}:
+ * dispatch the update now, drop it, or dispatch it after a delay.
+ */
+public final class FilterDecision {
+
+    public static final FilterDecision PASS = new FilterDecision(0);
+    public static final FilterDecision DROP = new FilterDecision(-1);
+
+    private final long delayNanos;
+
+    private FilterDecision(long delayNanos) {
+        this.delayNanos = delayNanos;
+    }
+
+    public static FilterDecision delay(long nanos) {
+        return nanos <= 0 ? PASS : new FilterDecision(nanos);
+    }
+
+    public static FilterDecision delay(Duration delay) {
+        return delay(delay.toNanos());
+    }
+
+    public boolean isDrop() {
+        return delayNanos < 0;
+    }
+
+    /**
+     * @return delay before the update is dispatched, {@code 0} to dispatch it now
+     */
+    public long getDelayNanos() {
+        return Math.max(delayNanos, 0);
+    }
+}
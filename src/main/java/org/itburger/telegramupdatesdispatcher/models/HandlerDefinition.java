@@ -0,0 +1,56 @@
+package org.itburger.telegramupdatesdispatcher.models;
+
+import org.itburger.telegramupdatesdispatcher.generics.HandlerInvoker;
+
+import java.lang.annotation.Annotation;
+import java.util.function.Function;
+
+/**
+ * Handler method entry of a generated {@link org.itburger.telegramupdatesdispatcher.generics.HandlerRegistry}.
+ */
+public final class HandlerDefinition {
+
+    private final Class<?> handlerClass;
+    private final String methodName;
+    private final Class<?>[] parameterTypes;
+    private final Class<? extends Annotation> annotationType;
+    private final Function<Object, HandlerInvoker> invokerFactory;
+
+    /**
+     * @param invokerFactory creates an invoker bound to the handler class instance,
+     *                       or returns {@code null} if the invoker must be bound at runtime
+     */
+    public HandlerDefinition(
+            Class<?> handlerClass,
+            String methodName,
+            Class<?>[] parameterTypes,
+            Class<? extends Annotation> annotationType,
+            Function<Object, HandlerInvoker> invokerFactory
+    ) {
+        this.handlerClass = handlerClass;
+        this.methodName = methodName;
+        this.parameterTypes = parameterTypes.clone();
+        this.annotationType = annotationType;
+        this.invokerFactory = invokerFactory;
+    }
+
+    public Class<?> getHandlerClass() {
+        return handlerClass;
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    public Class<?>[] getParameterTypes() {
+        return parameterTypes.clone();
+    }
+
+    public Class<? extends Annotation> getAnnotationType() {
+        return annotationType;
+    }
+
+    public HandlerInvoker createInvoker(Object instance) {
+        return invokerFactory.apply(instance);
+    }
+}
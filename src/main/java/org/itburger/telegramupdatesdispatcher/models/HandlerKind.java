@@ -0,0 +1,55 @@
+package org.itburger.telegramupdatesdispatcher.models;
+
+import org.itburger.telegramupdatesdispatcher.annotations.*;
+
+import java.lang.annotation.Annotation;
+
+/**
+ * Kind of handler, resolved once from the handler annotation type.
+ */
+public enum HandlerKind {
+    MESSAGE(MessageHandler.class),
+    COMMAND(CommandHandler.class),
+    CALLBACK_QUERY(CallbackQueryHandler.class),
+    INLINE_QUERY(InlineQueryHandler.class),
+    BUSINESS_MESSAGE(BusinessMessageHandler.class),
+    BUSINESS_CALLBACK_QUERY(BusinessCallbackQueryHandler.class),
+    DOCUMENT(DocumentHandler.class),
+    PHOTO(PhotoHandler.class),
+    VIDEO(VideoHandler.class),
+    VOICE(VoiceHandler.class),
+    AUDIO(AudioHandler.class),
+    SUCCESSFUL_PAYMENT(SuccessfulPaymentHandler.class),
+    PRE_CHECKOUT_QUERY(PreCheckoutQueryHandler.class),
+    ALBUM(AlbumHandler.class);
+
+    private final Class<? extends Annotation> annotationType;
+
+    HandlerKind(Class<? extends Annotation> annotationType) {
+        this.annotationType = annotationType;
+    }
+
+    public Class<? extends Annotation> getAnnotationType() {
+        return annotationType;
+    }
+
+    /**
+     * @return kind for the given handler annotation, or {@code null} if it is not a handler annotation
+     */
+    public static HandlerKind of(Annotation annotation) {
+        for (HandlerKind kind : values()) {
+            if (kind.annotationType.isInstance(annotation)) return kind;
+        }
+        return null;
+    }
+
+    /**
+     * @return kind for the given handler annotation type, or {@code null} if it is not a handler annotation
+     */
+    public static HandlerKind of(Class<?> annotationType) {
+        for (HandlerKind kind : values()) {
+            if (kind.annotationType == annotationType) return kind;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,245 @@
+package org.itburger.telegramupdatesdispatcher.models;
+
+import org.itburger.telegramupdatesdispatcher.TelegramUpdateDispatcher;
+import org.itburger.telegramupdatesdispatcher.exceptions.TelegramMiddlewareException;
+import org.itburger.telegramupdatesdispatcher.generics.*;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Middleware list compiled once into a fixed chain of stages.
+ * <p>
+ * Every stage holds its middleware and the next stage, so the pipeline keeps no per-update state:
+ * running an update allocates nothing, and the same pipeline may be used by several threads at once
+ * or re-entered from a middleware. Synchronous middlewares finish before the update is done;
+ * {@link AsyncTelegramMiddleware asynchronous} ones complete the stage returned by {@link #execute}.
+ * The last stage is the handler: for handlers returning a {@link CompletionStage} the chain completes
+ * when the handler's stage does, so asynchronous middlewares may attach to it, while synchronous ones wait for it.
+ * <p>
+ * With {@link DispatchMetrics} other than {@link DispatchMetrics#NOOP} every middleware is wrapped in a timed stage
+ * that reports its own time, excluding the rest of the chain.
+ * <p>
+ * The {@link DispatchContext} travels with the call: a middleware passing it on with
+ * {@link MiddlewareChain#next(DispatchContext, AbstractBotUser)} reuses it, an update passed with
+ * {@link MiddlewareChain#next(Update, AbstractBotUser)} gets a context of its own.
+ */
+public final class MiddlewarePipeline<U extends AbstractBotUser> {
+
+    private static final CompletionStage<Void> COMPLETED = CompletableFuture.completedStage(null);
+
+    private final Stage<U> head;
+
+    public MiddlewarePipeline(List<TelegramMiddleware<U>> middlewares, TelegramUpdateDispatcher<U> dispatcher) {
+        this(middlewares, dispatcher, DispatchMetrics.NOOP);
+    }
+
+    public MiddlewarePipeline(
+            List<TelegramMiddleware<U>> middlewares,
+            TelegramUpdateDispatcher<U> dispatcher,
+            DispatchMetrics metrics
+    ) {
+        boolean timed = metrics != DispatchMetrics.NOOP;
+        Stage<U> stage = new HandlerStage<>(dispatcher);
+        for (int i = middlewares.size() - 1; i >= 0; i--) {
+            TelegramMiddleware<U> middleware = middlewares.get(i);
+            if (middleware instanceof AsyncTelegramMiddleware) {
+                AsyncTelegramMiddleware<U> async = (AsyncTelegramMiddleware<U>) middleware;
+                stage = timed ? new TimedAsyncStage<>(async, stage, metrics) : new AsyncStage<>(async, stage);
+            } else {
+                stage = timed ? new TimedSyncStage<>(middleware, stage, metrics) : new SyncStage<>(middleware, stage);
+            }
+        }
+        this.head = stage;
+    }
+
+    /**
+     * Runs the update through all middlewares and the handler.
+     *
+     * @return stage that completes when asynchronous middlewares have finished;
+     * for purely synchronous pipelines it is already completed
+     */
+    public CompletionStage<Void> execute(Update update, U user) throws TelegramMiddlewareException {
+        return head.next(new DispatchContext(update), user);
+    }
+
+    /**
+     * Same as {@link #execute(Update, AbstractBotUser)}, reusing a context already created for the update.
+     */
+    public CompletionStage<Void> execute(DispatchContext context, U user) throws TelegramMiddlewareException {
+        return head.next(context, user);
+    }
+
+    /**
+     * Waits for a stage returned by {@link #execute}, rethrowing its failure unwrapped when possible.
+     */
+    public static void await(CompletionStage<Void> stage) throws TelegramMiddlewareException {
+        if (stage == COMPLETED) return;
+        try {
+            stage.toCompletableFuture().join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new TelegramMiddlewareException(cause);
+        }
+    }
+
+    private abstract static class Stage<U extends AbstractBotUser> implements AsyncMiddlewareChain<U> {
+
+        // Синхронное представление этой стадии для TelegramMiddleware
+        final MiddlewareChain<U> blocking = new MiddlewareChain<>() {
+            @Override
+            public void next(Update update, U user) {
+                await(Stage.this.next(update, user));
+            }
+
+            @Override
+            public void next(DispatchContext context, U user) {
+                await(Stage.this.next(context, user));
+            }
+        };
+
+        // Middleware может передать дальше другое обновление, тогда для него создаётся свой контекст
+        @Override
+        public final CompletionStage<Void> next(Update update, U user) {
+            return next(new DispatchContext(update), user);
+        }
+
+        @Override
+        public abstract CompletionStage<Void> next(DispatchContext context, U user);
+    }
+
+    private static final class SyncStage<U extends AbstractBotUser> extends Stage<U> {
+        private final TelegramMiddleware<U> middleware;
+        private final Stage<U> nextStage;
+
+        private SyncStage(TelegramMiddleware<U> middleware, Stage<U> nextStage) {
+            this.middleware = middleware;
+            this.nextStage = nextStage;
+        }
+
+        @Override
+        public CompletionStage<Void> next(DispatchContext context, U user) {
+            middleware.process(context, user, nextStage.blocking);
+            return COMPLETED;
+        }
+    }
+
+    private static final class AsyncStage<U extends AbstractBotUser> extends Stage<U> {
+        private final AsyncTelegramMiddleware<U> middleware;
+        private final Stage<U> nextStage;
+
+        private AsyncStage(AsyncTelegramMiddleware<U> middleware, Stage<U> nextStage) {
+            this.middleware = middleware;
+            this.nextStage = nextStage;
+        }
+
+        @Override
+        public CompletionStage<Void> next(DispatchContext context, U user) {
+            return middleware.processAsync(context, user, nextStage);
+        }
+    }
+
+    private static final class TimedSyncStage<U extends AbstractBotUser> extends Stage<U> {
+        private final TelegramMiddleware<U> middleware;
+        private final Stage<U> nextStage;
+        private final DispatchMetrics metrics;
+        private final String name;
+
+        private TimedSyncStage(TelegramMiddleware<U> middleware, Stage<U> nextStage, DispatchMetrics metrics) {
+            this.middleware = middleware;
+            this.nextStage = nextStage;
+            this.metrics = metrics;
+            this.name = middleware.getClass().getName();
+        }
+
+        @Override
+        public CompletionStage<Void> next(DispatchContext context, U user) {
+            Downstream<U> downstream = new Downstream<>(nextStage);
+            long start = System.nanoTime();
+            try {
+                middleware.process(context, user, downstream.blocking);
+            } finally {
+                metrics.middlewareExecuted(name, System.nanoTime() - start - downstream.elapsed);
+            }
+            return COMPLETED;
+        }
+    }
+
+    private static final class TimedAsyncStage<U extends AbstractBotUser> extends Stage<U> {
+        private final AsyncTelegramMiddleware<U> middleware;
+        private final Stage<U> nextStage;
+        private final DispatchMetrics metrics;
+        private final String name;
+
+        private TimedAsyncStage(AsyncTelegramMiddleware<U> middleware, Stage<U> nextStage, DispatchMetrics metrics) {
+            this.middleware = middleware;
+            this.nextStage = nextStage;
+            this.metrics = metrics;
+            this.name = middleware.getClass().getName();
+        }
+
+        @Override
+        public CompletionStage<Void> next(DispatchContext context, U user) {
+            Downstream<U> downstream = new Downstream<>(nextStage);
+            long start = System.nanoTime();
+            return middleware.processAsync(context, user, downstream).whenComplete((result, error) ->
+                    metrics.middlewareExecuted(name, System.nanoTime() - start - downstream.elapsed));
+        }
+    }
+
+    // Засекает время остальной цепочки, чтобы вычесть его из времени middleware
+    private static final class Downstream<U extends AbstractBotUser> implements AsyncMiddlewareChain<U> {
+        private final Stage<U> nextStage;
+        private volatile long elapsed;
+
+        private final MiddlewareChain<U> blocking = new MiddlewareChain<>() {
+            @Override
+            public void next(Update update, U user) {
+                next(new DispatchContext(update), user);
+            }
+
+            @Override
+            public void next(DispatchContext context, U user) {
+                long start = System.nanoTime();
+                try {
+                    await(nextStage.next(context, user));
+                } finally {
+                    elapsed += System.nanoTime() - start;
+                }
+            }
+        };
+
+        private Downstream(Stage<U> nextStage) {
+            this.nextStage = nextStage;
+        }
+
+        @Override
+        public CompletionStage<Void> next(Update update, U user) {
+            return next(new DispatchContext(update), user);
+        }
+
+        @Override
+        public CompletionStage<Void> next(DispatchContext context, U user) {
+            long start = System.nanoTime();
+            return nextStage.next(context, user).whenComplete((result, error) -> elapsed += System.nanoTime() - start);
+        }
+    }
+
+    private static final class HandlerStage<U extends AbstractBotUser> extends Stage<U> {
+        private final TelegramUpdateDispatcher<U> dispatcher;
+
+        private HandlerStage(TelegramUpdateDispatcher<U> dispatcher) {
+            this.dispatcher = dispatcher;
+        }
+
+        @Override
+        public CompletionStage<Void> next(DispatchContext context, U user) {
+            return dispatcher.dispatch(context, user);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package org.itburger.telegramupdatesdispatcher.processor;
+
+import org.itburger.telegramupdatesdispatcher.annotations.UpdateHandler;
+import org.itburger.telegramupdatesdispatcher.generics.AbstractBotUser;
+import org.itburger.telegramupdatesdispatcher.generics.HandlerRegistry;
+import org.itburger.telegramupdatesdispatcher.models.HandlerKind;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Generates a {@link HandlerRegistry} for every package containing
+ * {@link UpdateHandler @UpdateHandler} classes, so the dispatcher can call the handlers
+ * found by the classpath scan without reflection.
+ * <p>
+ * The processor is picked up automatically when this library is on the compile classpath.
+ * If the build lists annotation processors explicitly (e.g. {@code annotationProcessorPaths} for Lombok),
+ * add this artifact there as well.
+ */
+@SupportedAnnotationTypes("org.itburger.telegramupdatesdispatcher.annotations.UpdateHandler")
+public class HandlerRegistryProcessor extends AbstractProcessor {
+
+    static final String REGISTRY_SIMPLE_NAME = "GeneratedHandlerRegistry";
+    private static final String UPDATE_TYPE = "org.telegram.telegrambots.meta.api.objects.Update";
+    private static final String COMPLETION_STAGE_TYPE = "java.util.concurrent.CompletionStage";
+    private static final String CONTEXT_TYPE = "org.itburger.telegramupdatesdispatcher.models.DispatchContext";
+    private static final String LIST_TYPE = "java.util.List";
+    private static final String COLLECTION_TYPE = "java.util.Collection";
+    private static final String BOT_API_METHOD_TYPE = "org.telegram.telegrambots.meta.api.methods.botapimethods.BotApiMethod";
+
+    private final Set<String> generatedRegistries = new TreeSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeServiceFile();
+            return false;
+        }
+
+        Map<String, List<String>> definitionsByPackage = new TreeMap<>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(UpdateHandler.class)) {
+            if (element.getKind() != ElementKind.CLASS) continue;
+            TypeElement type = (TypeElement) element;
+            if (!isAccessible(type)) continue;
+
+            String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+            List<String> definitions = definitionsByPackage.computeIfAbsent(packageName, k -> new ArrayList<>());
+            for (Element enclosed : type.getEnclosedElements()) {
+                if (enclosed.getKind() != ElementKind.METHOD) continue;
+                ExecutableElement method = (ExecutableElement) enclosed;
+                for (AnnotationMirror annotation : method.getAnnotationMirrors()) {
+                    String annotationType = handlerAnnotation(annotation);
+                    if (annotationType == null) continue;
+                    boolean hasTemplate = hasTemplate(annotation);
+                    boolean isAlbum = annotationType.equals(HandlerKind.ALBUM.getAnnotationType().getCanonicalName());
+                    if (!isValidHandler(method, hasTemplate, isAlbum)) break;
+                    definitions.add(definition(type, method, annotationType));
+                }
+            }
+        }
+
+        definitionsByPackage.forEach(this::writeRegistry);
+        return false;
+    }
+
+    private boolean isAccessible(TypeElement type) {
+        if (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC)) {
+            error(type, "Nested @UpdateHandler class must be static");
+            return false;
+        }
+        for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            if (e.getModifiers().contains(Modifier.PRIVATE)) {
+                error(type, "@UpdateHandler class must not be private");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String handlerAnnotation(AnnotationMirror annotation) {
+        String name = annotation.getAnnotationType().toString();
+        for (HandlerKind kind : HandlerKind.values()) {
+            if (kind.getAnnotationType().getCanonicalName().equals(name)) return name;
+        }
+        return null;
+    }
+
+    private boolean hasTemplate(AnnotationMirror annotation) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                : annotation.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals("template")) {
+                return !entry.getValue().getValue().toString().isEmpty();
+            }
+        }
+        return false;
+    }
+
+    private boolean isValidHandler(ExecutableElement method, boolean hasTemplate, boolean isAlbum) {
+        if (method.getModifiers().contains(Modifier.PRIVATE)) {
+            error(method, "Handler method must not be private to be called from the generated registry");
+            return false;
+        }
+
+        Types types = processingEnv.getTypeUtils();
+        List<? extends VariableElement> params = method.getParameters();
+        TypeMirror botUser = types.erasure(processingEnv.getElementUtils()
+                .getTypeElement(AbstractBotUser.class.getCanonicalName()).asType());
+
+        boolean updateFirst = !params.isEmpty() && types.erasure(params.get(0).asType()).toString().equals(UPDATE_TYPE);
+        int fixed = params.size() > 1 && types.isAssignable(types.erasure(params.get(1).asType()), botUser) ? 2 : 1;
+        if (params.size() > fixed && types.erasure(params.get(fixed).asType()).toString().equals(CONTEXT_TYPE)) fixed++;
+        if (isAlbum && params.size() > fixed && isAlbumParameter(params.get(fixed).asType())) fixed++;
+        if (!updateFirst || (params.size() > fixed && !hasTemplate)) {
+            error(method, "Handler method must have signature: (Update) or (Update, User), optionally followed by DispatchContext"
+                    + (isAlbum ? " and List<Update> of the album" : ""));
+            return false;
+        }
+        // Соответствие параметров шаблону проверяется при регистрации обработчика
+        for (VariableElement param : params.subList(fixed, params.size())) {
+            if (!isTemplateParameter(param.asType())) {
+                error(param, "Template parameter must be long, int or String");
+                return false;
+            }
+        }
+
+        TypeMirror completionStage = erasure(COMPLETION_STAGE_TYPE);
+        TypeMirror returnType = method.getReturnType();
+        if (returnType.getKind() != TypeKind.VOID && !types.isAssignable(types.erasure(returnType), completionStage)
+                && !isBotApiMethod(returnType) && !isMethodCollection(returnType)) {
+            error(method, "Handler method must return void, CompletionStage, BotApiMethod or a List of BotApiMethod");
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isBotApiMethod(TypeMirror type) {
+        Types types = processingEnv.getTypeUtils();
+        return type.getKind() == TypeKind.DECLARED && types.isAssignable(types.erasure(type), erasure(BOT_API_METHOD_TYPE));
+    }
+
+    // List<SendMessage>, List<BotApiMethod<?>>, List<? extends BotApiMethod<?>> и т.п.
+    private boolean isMethodCollection(TypeMirror type) {
+        Types types = processingEnv.getTypeUtils();
+        if (type.getKind() != TypeKind.DECLARED || !types.isAssignable(types.erasure(type), erasure(COLLECTION_TYPE))) {
+            return false;
+        }
+        List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+        if (arguments.size() != 1) return false;
+        TypeMirror element = arguments.get(0);
+        if (element.getKind() == TypeKind.WILDCARD) element = ((WildcardType) element).getExtendsBound();
+        return element != null && isBotApiMethod(element);
+    }
+
+    private TypeMirror erasure(String typeName) {
+        return processingEnv.getTypeUtils().erasure(processingEnv.getElementUtils().getTypeElement(typeName).asType());
+    }
+
+    // List<Update> или List без параметра типа
+    private boolean isAlbumParameter(TypeMirror type) {
+        Types types = processingEnv.getTypeUtils();
+        if (!types.erasure(type).toString().equals(LIST_TYPE)) return false;
+        List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+        return arguments.isEmpty() || types.erasure(arguments.get(0)).toString().equals(UPDATE_TYPE);
+    }
+
+    private static boolean isTemplateParameter(TypeMirror type) {
+        switch (type.getKind()) {
+            case LONG:
+            case INT:
+                return true;
+            case DECLARED:
+                String name = type.toString();
+                return name.equals("java.lang.String") || name.equals("java.lang.Long") || name.equals("java.lang.Integer");
+            default:
+                return false;
+        }
+    }
+
+    private String definition(TypeElement type, ExecutableElement method, String annotationType) {
+        Types types = processingEnv.getTypeUtils();
+        String className = types.erasure(type.asType()).toString();
+        String methodName = method.getSimpleName().toString();
+        List<? extends VariableElement> params = method.getParameters();
+
+        StringBuilder paramTypes = new StringBuilder();
+        for (VariableElement param : params) {
+            if (paramTypes.length() > 0) paramTypes.append(", ");
+            paramTypes.append(types.erasure(param.asType())).append(".class");
+        }
+
+        boolean isStatic = method.getModifiers().contains(Modifier.STATIC);
+        String invoker = params.size() > 2 || (params.size() == 2 && !isBotUser(params.get(1)))
+                // DispatchContext, альбом и параметры шаблона связываются во время выполнения
+                ? "instance -> null"
+                : invoker(className, method, isStatic);
+
+        return "new HandlerDefinition(\n"
+                + "                " + className + ".class,\n"
+                + "                \"" + methodName + "\",\n"
+                + "                new Class<?>[]{" + paramTypes + "},\n"
+                + "                " + annotationType + ".class,\n"
+                + "                " + invoker + ")";
+    }
+
+    private boolean isBotUser(VariableElement param) {
+        Types types = processingEnv.getTypeUtils();
+        TypeMirror botUser = types.erasure(processingEnv.getElementUtils()
+                .getTypeElement(AbstractBotUser.class.getCanonicalName()).asType());
+        return types.isAssignable(types.erasure(param.asType()), botUser);
+    }
+
+    private String invoker(String className, ExecutableElement method, boolean isStatic) {
+        Types types = processingEnv.getTypeUtils();
+        List<? extends VariableElement> params = method.getParameters();
+        String args = params.size() == 2
+                ? "update, (" + types.erasure(params.get(1).asType()) + ") user"
+                : "update";
+        String methodName = method.getSimpleName().toString();
+        String call = (isStatic ? className : "handler") + "." + methodName + "(" + args + ")";
+        // Результат void-метода заменяется на null, HandlerInvoker всегда возвращает значение
+        String body = method.getReturnType().getKind() == TypeKind.VOID
+                ? "{ " + call + "; return null; }"
+                : call;
+        return isStatic
+                ? "instance -> (update, user) -> " + body
+                : "instance -> {\n"
+                + "                    " + className + " handler = (" + className + ") instance;\n"
+                + "                    return (update, user) -> " + body + ";\n"
+                + "                }";
+    }
+
+    private void writeRegistry(String packageName, List<String> definitions) {
+        if (definitions.isEmpty()) return;
+        String registryName = packageName.isEmpty() ? REGISTRY_SIMPLE_NAME : packageName + "." + REGISTRY_SIMPLE_NAME;
+        if (!generatedRegistries.add(registryName)) {
+            error(null, "Handlers of package '" + packageName + "' were discovered in several processing rounds");
+            return;
+        }
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) source.append("package ").append(packageName).append(";\n\n");
+        source.append("import org.itburger.telegramupdatesdispatcher.generics.HandlerRegistry;\n")
+                .append("import org.itburger.telegramupdatesdispatcher.models.HandlerDefinition;\n\n")
+                .append("import java.util.List;\n\n")
+                .append("@javax.annotation.processing.Generated(\"").append(getClass().getName()).append("\")\n")
+                .append("public final class ").append(REGISTRY_SIMPLE_NAME).append(" implements HandlerRegistry {\n\n")
+                .append("    @Override\n")
+                .append("    public String getPackageName() {\n")
+                .append("        return \"").append(packageName).append("\";\n")
+                .append("    }\n\n")
+                .append("    @Override\n")
+                .append("    public List<HandlerDefinition> getHandlers() {\n")
+                .append("        return List.of(");
+        for (int i = 0; i < definitions.size(); i++) {
+            source.append(i == 0 ? "\n" : ",\n").append("            ").append(definitions.get(i));
+        }
+        source.append("\n        );\n")
+                .append("    }\n")
+                .append("}\n");
+
+        try (Writer writer = processingEnv.getFiler().createSourceFile(registryName).openWriter()) {
+            writer.write(source.toString());
+        } catch (IOException e) {
+            error(null, "Unable to write " + registryName + ": " + e.getMessage());
+        }
+    }
+
+    private void writeServiceFile() {
+        if (generatedRegistries.isEmpty()) return;
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                    "META-INF/services/" + HandlerRegistry.class.getName());
+            try (Writer writer = file.openWriter()) {
+                for (String registry : generatedRegistries) {
+                    writer.write(registry);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            error(null, "Unable to write HandlerRegistry service file: " + e.getMessage());
+        }
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
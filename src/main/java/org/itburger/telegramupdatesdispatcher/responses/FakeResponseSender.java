@@ -0,0 +1,91 @@
+package org.itburger.telegramupdatesdispatcher.responses;
+
+import org.itburger.telegramupdatesdispatcher.generics.ResponseSender;
+import org.telegram.telegrambots.meta.api.methods.botapimethods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.objects.ApiResponse;
+import org.telegram.telegrambots.meta.api.objects.ResponseParameters;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory {@link ResponseSender} for tests: records every method instead of calling the Bot API.
+ * Requests succeed with a {@code null} result unless rate limiting is simulated with {@link #rejectNext(int, int)}.
+ *
+ * <pre>{@code
+ * FakeResponseSender sender = new FakeResponseSender();
+ * dispatcher.setResponseScheduler(new ResponseScheduler(sender));
+ * dispatcher.dispatch(update);
+ * List<BotApiMethod<?>> sent = sender.awaitSent(1, Duration.ofSeconds(1));
+ * }</pre>
+ */
+public class FakeResponseSender implements ResponseSender {
+
+    private final List<BotApiMethod<?>> sent = new ArrayList<>();
+    private final List<Long> sentAtNanos = new ArrayList<>();
+    private int rejections;
+    private int retryAfterSeconds;
+
+    @Override
+    public synchronized CompletionStage<?> send(BotApiMethod<?> method) {
+        if (rejections > 0) {
+            rejections--;
+            ApiResponse<Object> response = ApiResponse.builder()
+                    .ok(false)
+                    .errorCode(429)
+                    .errorDescription("Too Many Requests: retry after " + retryAfterSeconds)
+                    .parameters(new ResponseParameters(null, retryAfterSeconds))
+                    .build();
+            return CompletableFuture.failedFuture(new TelegramApiRequestException("Too Many Requests", response));
+        }
+        sent.add(method);
+        sentAtNanos.add(System.nanoTime());
+        notifyAll();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Fails the next {@code count} requests with error 429 and the given {@code retry_after}.
+     */
+    public synchronized void rejectNext(int count, int retryAfterSeconds) {
+        this.rejections = count;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * @return methods sent so far, in the order they were sent
+     */
+    public synchronized List<BotApiMethod<?>> getSent() {
+        return List.copyOf(sent);
+    }
+
+    /**
+     * @return {@link System#nanoTime()} of every send, parallel to {@link #getSent()}
+     */
+    public synchronized List<Long> getSentAtNanos() {
+        return List.copyOf(sentAtNanos);
+    }
+
+    /**
+     * Waits until at least {@code count} methods have been sent.
+     *
+     * @return methods sent so far, possibly fewer than {@code count} if the timeout has passed
+     */
+    public synchronized List<BotApiMethod<?>> awaitSent(int count, Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        for (long left = timeout.toNanos(); sent.size() < count && left > 0; left = deadline - System.nanoTime()) {
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        return getSent();
+    }
+
+    public synchronized void clear() {
+        sent.clear();
+        sentAtNanos.clear();
+    }
+}
@@ -0,0 +1,339 @@
+package org.itburger.telegramupdatesdispatcher.responses;
+
+import lombok.extern.slf4j.Slf4j;
+import org.itburger.telegramupdatesdispatcher.generics.ResponseSender;
+import org.telegram.telegrambots.meta.api.methods.botapimethods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sends Bot API methods through a {@link ResponseSender} within Telegram's rate limits.
+ * <p>
+ * Methods addressed to a chat are queued per chat and sent one at a time, in the order they were submitted,
+ * at most one per {@code chatInterval} in a chat and {@code globalPerSecond} in total, paced evenly.
+ * A newer {@link EditMessageText} of a message replaces an older one still waiting in the queue and takes
+ * its place, so it is still sent before the methods submitted after the older edit; both complete with the
+ * result of the newer one. A request failing with error 429 is retried after its
+ * {@code retry_after}, holding back the rest of its chat, up to {@code maxRetries} times. Methods without
+ * a chat, e.g. {@code AnswerCallbackQuery}, are sent at once. All sends are started by one virtual thread.
+ *
+ * <pre>{@code
+ * ResponseScheduler responses = new ResponseScheduler(method -> telegramClient.executeAsync(method));
+ * dispatcher.setResponseScheduler(responses);
+ * }</pre>
+ */
+@Slf4j
+public class ResponseScheduler implements AutoCloseable {
+
+    public static final double DEFAULT_GLOBAL_PER_SECOND = 30;
+    public static final Duration DEFAULT_CHAT_INTERVAL = Duration.ofSeconds(1);
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    private static final ClassValue<Method> CHAT_ID_GETTERS = new ClassValue<>() {
+        @Override
+        protected Method computeValue(Class<?> type) {
+            try {
+                return type.getMethod("getChatId");
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
+        }
+    };
+
+    private final ResponseSender sender;
+    private final long globalIntervalNanos;
+    private final long chatIntervalNanos;
+    private final int maxRetries;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<String, Chat> chats = new HashMap<>();
+    // Чаты с работой или с не истёкшим интервалом, по времени, когда им можно отправлять
+    private final PriorityQueue<Chat> ready = new PriorityQueue<>(Comparator.comparingLong((Chat chat) -> chat.readyAt));
+    private long globalReadyAt = System.nanoTime();
+    private boolean closed;
+
+    public ResponseScheduler(ResponseSender sender) {
+        this(sender, DEFAULT_GLOBAL_PER_SECOND, DEFAULT_CHAT_INTERVAL, DEFAULT_MAX_RETRIES);
+    }
+
+    public ResponseScheduler(ResponseSender sender, double globalPerSecond, Duration chatInterval, int maxRetries) {
+        if (globalPerSecond <= 0) {
+            throw new IllegalArgumentException("globalPerSecond must be positive");
+        }
+        if (chatInterval.isNegative()) {
+            throw new IllegalArgumentException("chatInterval must not be negative");
+        }
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries must not be negative");
+        }
+        this.sender = sender;
+        this.globalIntervalNanos = (long) (1_000_000_000d / globalPerSecond);
+        this.chatIntervalNanos = chatInterval.toNanos();
+        this.maxRetries = maxRetries;
+        Thread.ofVirtual().name("response-scheduler").start(this::run);
+    }
+
+    /**
+     * Queues the method for sending.
+     *
+     * @return stage completing with the result of the method, or exceptionally if it failed
+     * after all retries or the scheduler was closed
+     * @throws RejectedExecutionException if the scheduler is closed
+     */
+    public CompletionStage<Object> submit(BotApiMethod<?> method) {
+        Pending pending = new Pending(method);
+        String chatId = chatIdOf(method);
+        if (chatId == null) {
+            sendDirectly(pending);
+            return pending.result;
+        }
+
+        lock.lock();
+        try {
+            if (closed) {
+                throw new RejectedExecutionException("ResponseScheduler is closed");
+            }
+            Chat chat = chats.computeIfAbsent(chatId, Chat::new);
+            Pending replaced = coalesce(chat, method);
+            if (replaced != null) return replaced.result;
+            chat.queue.add(pending);
+            enqueue(chat);
+        } finally {
+            lock.unlock();
+        }
+        return pending.result;
+    }
+
+    /**
+     * @return number of methods waiting to be sent or being sent
+     */
+    public int getPendingCount() {
+        lock.lock();
+        try {
+            int count = 0;
+            for (Chat chat : chats.values()) count += chat.queue.size();
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops sending; methods not sent yet complete with a {@link CancellationException}.
+     */
+    @Override
+    public void close() {
+        List<Pending> cancelled = new ArrayList<>();
+        lock.lock();
+        try {
+            closed = true;
+            for (Chat chat : chats.values()) {
+                Iterator<Pending> iterator = chat.queue.iterator();
+                // Уже отправляемый метод завершится сам
+                if (chat.inFlight && iterator.hasNext()) iterator.next();
+                iterator.forEachRemaining(cancelled::add);
+            }
+            chats.clear();
+            ready.clear();
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        cancelled.forEach(pending -> pending.result.completeExceptionally(
+                new CancellationException("ResponseScheduler is closed")));
+    }
+
+    private void run() {
+        while (true) {
+            Chat chat;
+            Pending pending;
+            lock.lock();
+            try {
+                while (true) {
+                    if (closed) return;
+                    Chat next = ready.peek();
+                    long now = System.nanoTime();
+                    if (next == null) {
+                        changed.await();
+                        continue;
+                    }
+                    long startAt = next.queue.isEmpty() ? next.readyAt : Math.max(next.readyAt, globalReadyAt);
+                    if (startAt - now > 0) {
+                        changed.awaitNanos(startAt - now);
+                        continue;
+                    }
+                    ready.poll();
+                    next.queued = false;
+                    if (next.queue.isEmpty()) {
+                        // Интервал чата истёк, а новых методов нет
+                        chats.remove(next.id);
+                        continue;
+                    }
+                    chat = next;
+                    pending = chat.queue.peek();
+                    chat.inFlight = true;
+                    chat.readyAt = now + chatIntervalNanos;
+                    globalReadyAt = Math.max(globalReadyAt, now) + globalIntervalNanos;
+                    break;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            Chat sentChat = chat;
+            send(pending).whenComplete((result, error) -> sent(sentChat, pending, result, error));
+        }
+    }
+
+    private void sent(Chat chat, Pending pending, Object result, Throwable error) {
+        long retryAfter = error != null ? retryAfterNanos(error) : -1;
+        boolean retry = retryAfter >= 0 && pending.attempts < maxRetries;
+        lock.lock();
+        try {
+            chat.inFlight = false;
+            if (closed) {
+                retry = false;
+            } else {
+                if (retry) {
+                    pending.attempts++;
+                    chat.readyAt = Math.max(chat.readyAt, System.nanoTime() + retryAfter);
+                    log.debug("Chat {} is rate limited, retrying in {} ms", chat.id, retryAfter / 1_000_000);
+                } else {
+                    chat.queue.poll();
+                }
+                enqueue(chat);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (!retry) complete(pending.result, result, error);
+    }
+
+    private void sendDirectly(Pending pending) {
+        send(pending).whenComplete((result, error) -> {
+            long retryAfter = error != null ? retryAfterNanos(error) : -1;
+            if (retryAfter >= 0 && pending.attempts < maxRetries) {
+                pending.attempts++;
+                CompletableFuture.delayedExecutor(retryAfter, TimeUnit.NANOSECONDS)
+                        .execute(() -> sendDirectly(pending));
+            } else {
+                complete(pending.result, result, error);
+            }
+        });
+    }
+
+    private CompletionStage<?> send(Pending pending) {
+        try {
+            return sender.send(pending.method);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // Под блокировкой
+    private void enqueue(Chat chat) {
+        if (chat.queued || chat.inFlight) return;
+        chat.queued = true;
+        ready.add(chat);
+        changed.signal();
+    }
+
+    // Под блокировкой: новая правка сообщения заменяет ещё не отправленную старую,
+    // возвращается элемент очереди, в котором теперь лежит правка
+    private static Pending coalesce(Chat chat, BotApiMethod<?> method) {
+        if (!(method instanceof EditMessageText)) return null;
+        EditMessageText edit = (EditMessageText) method;
+        Iterator<Pending> iterator = chat.queue.iterator();
+        if (chat.inFlight && iterator.hasNext()) iterator.next();
+        while (iterator.hasNext()) {
+            Pending queued = iterator.next();
+            if (queued.method instanceof EditMessageText
+                    && Objects.equals(((EditMessageText) queued.method).getMessageId(), edit.getMessageId())) {
+                // Место в очереди сохраняется, иначе правка ушла бы после отправленных позже сообщений
+                queued.method = edit;
+                queued.attempts = 0;
+                return queued;
+            }
+        }
+        return null;
+    }
+
+    private static void complete(CompletableFuture<Object> future, Object result, Throwable error) {
+        if (error != null) {
+            future.completeExceptionally(unwrap(error));
+        } else {
+            future.complete(result);
+        }
+    }
+
+    /**
+     * @return delay requested by a 429 response, or {@code -1} if the error is not a rate limit
+     */
+    private static long retryAfterNanos(Throwable error) {
+        Throwable cause = unwrap(error);
+        if (!(cause instanceof TelegramApiRequestException)) return -1;
+        TelegramApiRequestException exception = (TelegramApiRequestException) cause;
+        if (!Integer.valueOf(429).equals(exception.getErrorCode()) || exception.getParameters() == null
+                || exception.getParameters().getRetryAfter() == null) {
+            return -1;
+        }
+        return TimeUnit.SECONDS.toNanos(exception.getParameters().getRetryAfter());
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * @return chat the method is addressed to, or {@code null} if it has none
+     */
+    static String chatIdOf(BotApiMethod<?> method) {
+        Method getter = CHAT_ID_GETTERS.get(method.getClass());
+        if (getter == null) return null;
+        try {
+            Object chatId = getter.invoke(method);
+            return chatId != null ? chatId.toString() : null;
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static final class Chat {
+        private final String id;
+        // Первый элемент отправляется, пока inFlight
+        private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+        private long readyAt = System.nanoTime();
+        private boolean inFlight;
+        private boolean queued;
+
+        private Chat(String id) {
+            this.id = id;
+        }
+    }
+
+    private static final class Pending {
+        private BotApiMethod<?> method;
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+        private int attempts;
+
+        private Pending(BotApiMethod<?> method) {
+            this.method = method;
+        }
+    }
+}
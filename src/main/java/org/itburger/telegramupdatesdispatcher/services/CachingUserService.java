@@ -0,0 +1,263 @@
+package org.itburger.telegramupdatesdispatcher.services;
+
+import org.itburger.telegramupdatesdispatcher.generics.AbstractBotUser;
+import org.itburger.telegramupdatesdispatcher.generics.AbstractUserService;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Bounded in-memory cache in front of another {@link AbstractUserService}.
+ * <p>
+ * Users are kept in LRU order up to {@code maximumSize} entries and expire {@code ttl} after they were loaded
+ * or saved. Concurrent misses for the same id share one call of the underlying {@code findByTelegramId}.
+ * Unknown users ({@code null} results) are not cached.
+ * <p>
+ * {@link #save(AbstractBotUser)} writes through to the underlying service and replaces the cached entry.
+ * If users are changed bypassing this service, call {@link #invalidate(Long)} or {@link #invalidateAll()}.
+ *
+ * <pre>{@code
+ * CachingUserService<BotUser> users = new CachingUserService<>(userService, 10_000, Duration.ofMinutes(5));
+ * new TelegramUpdateDispatcher<>(users, BotUser.class, "com.your.package.handlers", context);
+ * }</pre>
+ */
+public class CachingUserService<U extends AbstractBotUser> extends AbstractUserService<U> {
+
+    private final AbstractUserService<U> delegate;
+    private final int maximumSize;
+    private final long ttlNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Long, Entry<U>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<Long, CompletableFuture<U>> loads = new ConcurrentHashMap<>();
+    // Метка загрузки для каждого загружаемого id; запись или сброс id снимает метку,
+    // и результат уже начатой загрузки этого id не попадает в кэш как устаревший
+    private final HashMap<Long, Object> loadTokens = new HashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loadCount = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public CachingUserService(AbstractUserService<U> delegate, int maximumSize, Duration ttl) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be positive");
+        }
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("ttl must be positive");
+        }
+        this.delegate = delegate;
+        this.maximumSize = maximumSize;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    @Override
+    public U findByTelegramId(Long telegramId) {
+        if (telegramId == null) return delegate.findByTelegramId(null);
+
+        U cached = getIfPresent(telegramId);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+
+        CompletableFuture<U> load = new CompletableFuture<>();
+        CompletableFuture<U> running = loads.putIfAbsent(telegramId, load);
+        if (running != null) return join(running);
+
+        lock.lock();
+        try {
+            loadTokens.put(telegramId, load);
+        } finally {
+            lock.unlock();
+        }
+        U user = null;
+        try {
+            loadCount.increment();
+            user = delegate.findByTelegramId(telegramId);
+            load.complete(user);
+            return user;
+        } catch (RuntimeException | Error e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            lock.lock();
+            try {
+                if (loadTokens.remove(telegramId, load) && user != null) putLocked(telegramId, user);
+            } finally {
+                lock.unlock();
+            }
+            loads.remove(telegramId, load);
+        }
+    }
+
+    /**
+     * Serves cached users and loads the rest with one call of the underlying
+     * {@link AbstractUserService#findAllByTelegramIds(Collection)}.
+     */
+    @Override
+    public Map<Long, U> findAllByTelegramIds(Collection<Long> telegramIds) {
+        Map<Long, U> users = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (Long telegramId : telegramIds) {
+            U cached = telegramId != null ? getIfPresent(telegramId) : null;
+            if (cached != null) {
+                hits.increment();
+                users.put(telegramId, cached);
+            } else if (telegramId != null) {
+                misses.increment();
+                missing.add(telegramId);
+            }
+        }
+        if (missing.isEmpty()) return users;
+
+        Object token = new Object();
+        lock.lock();
+        try {
+            for (Long telegramId : missing) {
+                loadTokens.put(telegramId, token);
+            }
+        } finally {
+            lock.unlock();
+        }
+        Map<Long, U> loaded = Map.of();
+        try {
+            loadCount.increment();
+            loaded = delegate.findAllByTelegramIds(missing);
+        } finally {
+            lock.lock();
+            try {
+                for (Long telegramId : missing) {
+                    U user = loaded.get(telegramId);
+                    if (loadTokens.remove(telegramId, token) && user != null) putLocked(telegramId, user);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        users.putAll(loaded);
+        return users;
+    }
+
+    @Override
+    public U save(U user) {
+        U saved = delegate.save(user);
+        U cached = saved != null ? saved : user;
+        Long telegramId = cached.getTelegramId();
+        if (telegramId == null) return saved;
+
+        lock.lock();
+        try {
+            loadTokens.remove(telegramId);
+            putLocked(telegramId, cached);
+        } finally {
+            lock.unlock();
+        }
+        return saved;
+    }
+
+    /**
+     * Removes the user from the cache; the next lookup loads it from the underlying service.
+     */
+    public void invalidate(Long telegramId) {
+        lock.lock();
+        try {
+            loadTokens.remove(telegramId);
+            entries.remove(telegramId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes cached users whose ids match the predicate, e.g. users another node took over after
+     * {@link org.itburger.telegramupdatesdispatcher.sharding.ShardRouter#setNodes(Collection) rebalancing}.
+     *
+     * @return number of removed users
+     */
+    public int invalidateIf(Predicate<Long> predicate) {
+        lock.lock();
+        try {
+            loadTokens.keySet().removeIf(predicate);
+            int size = entries.size();
+            entries.keySet().removeIf(predicate);
+            return size - entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            loadTokens.clear();
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public UserCacheStats getStats() {
+        int size;
+        lock.lock();
+        try {
+            size = entries.size();
+        } finally {
+            lock.unlock();
+        }
+        return new UserCacheStats(hits.sum(), misses.sum(), loadCount.sum(), evictions.sum(), size);
+    }
+
+    private U getIfPresent(Long telegramId) {
+        lock.lock();
+        try {
+            Entry<U> entry = entries.get(telegramId);
+            if (entry == null) return null;
+            if (System.nanoTime() - entry.loadedAt >= ttlNanos) {
+                entries.remove(telegramId);
+                evictions.increment();
+                return null;
+            }
+            return entry.user;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void putLocked(Long telegramId, U user) {
+        entries.put(telegramId, new Entry<>(user, System.nanoTime()));
+        if (entries.size() > maximumSize) {
+            Iterator<Map.Entry<Long, Entry<U>>> eldest = entries.entrySet().iterator();
+            eldest.next();
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    private static <U> U join(CompletableFuture<U> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw e;
+        }
+    }
+
+    private static final class Entry<U> {
+        private final U user;
+        private final long loadedAt;
+
+        private Entry(U user, long loadedAt) {
+            this.user = user;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.itburger.telegramupdatesdispatcher.services;
+
+/**
+ * Snapshot of {@link CachingUserService} counters.
+ */
+public final class UserCacheStats {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long loadCount;
+    private final long evictionCount;
+    private final int size;
+
+    UserCacheStats(long hitCount, long missCount, long loadCount, long evictionCount, int size) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadCount = loadCount;
+        this.evictionCount = evictionCount;
+        this.size = size;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Lookups that were not served from the cache, including the ones that joined another thread's load.
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Calls of the underlying {@code findByTelegramId} or {@code findAllByTelegramIds}.
+     */
+    public long getLoadCount() {
+        return loadCount;
+    }
+
+    /**
+     * Entries removed because of the size limit or expiration.
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public double getHitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "UserCacheStats{hits=" + hitCount + ", misses=" + missCount + ", loads=" + loadCount
+                + ", evictions=" + evictionCount + ", size=" + size + "}";
+    }
+}
@@ -0,0 +1,304 @@
+package org.itburger.telegramupdatesdispatcher.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.itburger.telegramupdatesdispatcher.generics.AbstractBotUser;
+import org.itburger.telegramupdatesdispatcher.generics.AbstractUserService;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Write-behind layer over another {@link AbstractUserService}.
+ * <p>
+ * {@link #save(AbstractBotUser)} only marks the user dirty and returns it. Dirty users are written to the
+ * underlying service with {@link AbstractUserService#saveAll(Collection)} when {@code maxBatchSize} users are
+ * pending or every {@code flushInterval}, whichever comes first; the interval timer starts with the first save.
+ * Repeated saves of the same user between two flushes are merged into one write of the latest instance.
+ * Lookups see pending users before they are flushed.
+ * <p>
+ * Users of a failed flush become pending again, unless a newer instance was saved meanwhile, and are retried
+ * by the next flushes. A user that still fails after {@code maxRetries} retries is dropped and reported to
+ * the error handler. {@link #close()} flushes everything that is pending, Spring calls it automatically when
+ * the service is a bean.
+ */
+@Slf4j
+public class WriteBehindUserService<U extends AbstractBotUser> extends AbstractUserService<U> implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    private final AbstractUserService<U> delegate;
+    private final int maxBatchSize;
+    private final int maxRetries;
+    private final BiConsumer<List<U>, Exception> errorHandler;
+    private final ScheduledExecutorService scheduler;
+    private final long flushIntervalNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Long, U> dirty = new LinkedHashMap<>();
+    // Пользователи сбрасываемой сейчас пачки остаются видимыми для поиска до окончания записи
+    private Map<Long, U> flushing = Map.of();
+    // Число неудачных сбросов подряд для каждого пользователя
+    private final Map<Long, Integer> failures = new HashMap<>();
+    // Сбросы выполняются строго по очереди, чтобы записи одного пользователя не переупорядочивались
+    private final ReentrantLock flushLock = new ReentrantLock();
+    // Не больше одного запланированного сброса по размеру пачки, пока он не начался
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private boolean closed;
+    private boolean timerStarted;
+
+    public WriteBehindUserService(AbstractUserService<U> delegate, int maxBatchSize, Duration flushInterval) {
+        this(delegate, maxBatchSize, flushInterval,
+                (users, e) -> log.error("Dropped {} user(s) after repeated flush failures", users.size(), e));
+    }
+
+    public WriteBehindUserService(
+            AbstractUserService<U> delegate,
+            int maxBatchSize,
+            Duration flushInterval,
+            BiConsumer<List<U>, Exception> errorHandler
+    ) {
+        this(delegate, maxBatchSize, flushInterval, DEFAULT_MAX_RETRIES, errorHandler);
+    }
+
+    /**
+     * @param maxRetries how many more flushes a user of a failed flush takes part in before it is dropped
+     * @param errorHandler receives the dropped users and the failure of their last flush
+     */
+    public WriteBehindUserService(
+            AbstractUserService<U> delegate,
+            int maxBatchSize,
+            Duration flushInterval,
+            int maxRetries,
+            BiConsumer<List<U>, Exception> errorHandler
+    ) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries must not be negative");
+        }
+        this.delegate = delegate;
+        this.maxBatchSize = maxBatchSize;
+        this.maxRetries = maxRetries;
+        this.errorHandler = errorHandler;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "write-behind-user-service");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flushIntervalNanos = flushInterval.toNanos();
+    }
+
+    @Override
+    public U findByTelegramId(Long telegramId) {
+        U pending = getPending(telegramId);
+        return pending != null ? pending : delegate.findByTelegramId(telegramId);
+    }
+
+    @Override
+    public Map<Long, U> findAllByTelegramIds(Collection<Long> telegramIds) {
+        Map<Long, U> users = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (Long telegramId : telegramIds) {
+            U pending = getPending(telegramId);
+            if (pending != null) {
+                users.put(telegramId, pending);
+            } else {
+                missing.add(telegramId);
+            }
+        }
+        if (!missing.isEmpty()) users.putAll(delegate.findAllByTelegramIds(missing));
+        return users;
+    }
+
+    /**
+     * Marks the user dirty. After {@link #close()} the user is written through immediately.
+     *
+     * @return the same user instance
+     */
+    @Override
+    public U save(U user) {
+        Long telegramId = user.getTelegramId();
+        if (telegramId == null) return delegate.save(user);
+
+        int pending;
+        lock.lock();
+        try {
+            // closed проверяется под той же блокировкой, что и в close(),
+            // иначе пользователь может попасть в dirty уже после последнего сброса
+            if (closed) {
+                pending = -1;
+            } else {
+                if (!timerStarted) startTimer();
+                dirty.put(telegramId, user);
+                pending = dirty.size();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (pending < 0) return writeThrough(telegramId, user);
+
+        if (pending >= maxBatchSize && flushRequested.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                flush();
+            }
+        }
+        return user;
+    }
+
+    @Override
+    public void saveAll(Collection<U> users) {
+        for (U user : users) {
+            save(user);
+        }
+    }
+
+    /**
+     * Writes all pending users to the underlying service now.
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            // Сбрасывается до снимка dirty: сохранения после снимка запросят следующий сброс
+            flushRequested.set(false);
+            List<U> batch;
+            lock.lock();
+            try {
+                if (dirty.isEmpty()) return;
+                batch = new ArrayList<>(dirty.values());
+                flushing = new HashMap<>(dirty);
+                dirty.clear();
+            } finally {
+                lock.unlock();
+            }
+
+            boolean saved = false;
+            Exception failure = null;
+            List<U> dropped = List.of();
+            try {
+                delegate.saveAll(batch);
+                saved = true;
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                lock.lock();
+                try {
+                    // Возврат в dirty под той же блокировкой, чтобы поиск не увидел устаревшую запись из базы
+                    flushing = Map.of();
+                    if (saved) {
+                        if (!failures.isEmpty()) batch.forEach(user -> failures.remove(user.getTelegramId()));
+                    } else {
+                        dropped = requeue(batch);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            if (failure != null) {
+                if (dropped.isEmpty()) {
+                    log.warn("Failed to flush {} user(s), they will be retried", batch.size(), failure);
+                } else {
+                    errorHandler.accept(dropped, failure);
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * @return number of users waiting to be flushed
+     */
+    public int getPendingCount() {
+        lock.lock();
+        try {
+            return dirty.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the flush timer and writes all pending users, retrying failed ones right away.
+     * Later saves are written through.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Пользователи неудачного сброса снова в очереди, число повторов ограничено maxRetries
+        while (getPendingCount() > 0) {
+            flush();
+        }
+    }
+
+    // Таймер запускается первым сохранением, а не в конструкторе, чтобы не публиковать this до конца инициализации
+    private void startTimer() {
+        timerStarted = true;
+        scheduler.scheduleWithFixedDelay(this::flush, flushIntervalNanos, flushIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // После закрытия: старая версия пользователя не должна быть записана после новой
+    private U writeThrough(Long telegramId, U user) {
+        flushLock.lock();
+        try {
+            lock.lock();
+            try {
+                dirty.remove(telegramId);
+            } finally {
+                lock.unlock();
+            }
+            return delegate.save(user);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // Вызывается под lock; более новая версия пользователя, сохранённая во время сброса, не затирается
+    private List<U> requeue(List<U> batch) {
+        List<U> dropped = new ArrayList<>();
+        for (U user : batch) {
+            Long telegramId = user.getTelegramId();
+            int failed = failures.merge(telegramId, 1, Integer::sum);
+            if (dirty.containsKey(telegramId)) continue;
+            if (failed > maxRetries) {
+                failures.remove(telegramId);
+                dropped.add(user);
+            } else {
+                dirty.put(telegramId, user);
+            }
+        }
+        return dropped;
+    }
+
+    private U getPending(Long telegramId) {
+        if (telegramId == null) return null;
+        lock.lock();
+        try {
+            U user = dirty.get(telegramId);
+            return user != null ? user : flushing.get(telegramId);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
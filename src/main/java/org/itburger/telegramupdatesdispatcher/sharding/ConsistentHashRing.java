@@ -0,0 +1,105 @@
+package org.itburger.telegramupdatesdispatcher.sharding;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Immutable consistent-hash ring assigning user and chat ids to nodes.
+ * <p>
+ * Every node is placed on the ring {@code virtualNodes} times, and an id belongs to the first node point
+ * following its hash. When a node joins or leaves, only the ids between its points and the preceding ones
+ * change owner, about {@code 1/n} of all ids, while the rest stay where their users are cached.
+ * Positions depend only on node names, so all nodes with the same membership agree on every owner.
+ */
+public final class ConsistentHashRing {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final Set<String> nodes;
+    private final long[] points;
+    private final String[] owners;
+
+    public ConsistentHashRing(Collection<String> nodes) {
+        this(nodes, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("Ring needs at least one node");
+        }
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("virtualNodes must be positive");
+        }
+        this.nodes = Collections.unmodifiableSet(new TreeSet<>(nodes));
+
+        Point[] ring = new Point[this.nodes.size() * virtualNodes];
+        int i = 0;
+        for (String node : this.nodes) {
+            for (int replica = 0; replica < virtualNodes; replica++) {
+                ring[i++] = new Point(hash(node + '#' + replica), node);
+            }
+        }
+        // При совпадении хешей порядок задаёт имя узла, чтобы все узлы строили одинаковое кольцо
+        Arrays.sort(ring, (a, b) -> a.position != b.position
+                ? Long.compare(a.position, b.position)
+                : a.node.compareTo(b.node));
+
+        this.points = new long[ring.length];
+        this.owners = new String[ring.length];
+        for (i = 0; i < ring.length; i++) {
+            points[i] = ring[i].position;
+            owners[i] = ring[i].node;
+        }
+    }
+
+    /**
+     * @return node owning the user or chat id
+     */
+    public String ownerOf(long id) {
+        int i = Arrays.binarySearch(points, mix(id));
+        if (i < 0) i = -i - 1;
+        // Первая точка кольца после последней
+        return owners[i == points.length ? 0 : i];
+    }
+
+    public Set<String> getNodes() {
+        return nodes;
+    }
+
+    // FNV-1a с финальным перемешиванием MurmurHash3
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "ConsistentHashRing" + nodes;
+    }
+
+    private static final class Point {
+        private final long position;
+        private final String node;
+
+        private Point(long position, String node) {
+            this.position = position;
+            this.node = node;
+        }
+    }
+}
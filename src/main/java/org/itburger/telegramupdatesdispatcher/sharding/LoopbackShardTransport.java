@@ -0,0 +1,48 @@
+package org.itburger.telegramupdatesdispatcher.sharding;
+
+import org.itburger.telegramupdatesdispatcher.exceptions.TelegramMiddlewareException;
+import org.itburger.telegramupdatesdispatcher.generics.ShardTransport;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link ShardTransport} between routers in the same JVM, to run a multi-node setup locally or in tests.
+ * An update is passed to the owner's {@link ShardRouter#receive(Update)} on the calling thread.
+ *
+ * <pre>{@code
+ * LoopbackShardTransport transport = new LoopbackShardTransport();
+ * transport.connect(new ShardRouter("node-a", nodes, dispatcherA, transport));
+ * transport.connect(new ShardRouter("node-b", nodes, dispatcherB, transport));
+ * }</pre>
+ */
+public class LoopbackShardTransport implements ShardTransport {
+
+    private final ConcurrentHashMap<String, ShardRouter> routers = new ConcurrentHashMap<>();
+
+    public void connect(ShardRouter router) {
+        routers.put(router.getLocalNode(), router);
+    }
+
+    /**
+     * Simulates a node going down: updates forwarded to it fail until it is connected again.
+     */
+    public void disconnect(String node) {
+        routers.remove(node);
+    }
+
+    @Override
+    public CompletionStage<Void> forward(String node, Update update) {
+        ShardRouter router = routers.get(node);
+        if (router == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Node " + node + " is not connected"));
+        }
+        try {
+            return router.receive(update);
+        } catch (TelegramMiddlewareException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.itburger.telegramupdatesdispatcher.sharding;
+
+import lombok.extern.slf4j.Slf4j;
+import org.itburger.telegramupdatesdispatcher.TelegramUpdateDispatcher;
+import org.itburger.telegramupdatesdispatcher.exceptions.TelegramMiddlewareException;
+import org.itburger.telegramupdatesdispatcher.generics.ShardTransport;
+import org.itburger.telegramupdatesdispatcher.models.DispatchContext;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+/**
+ * Makes one node of a multi-node bot the owner of each user, so updates of a user are never processed
+ * by two nodes at once and the owner can keep the user cached.
+ * <p>
+ * Updates arriving at any node, e.g. through a load-balanced webhook, are passed to {@link #route(Update)}.
+ * The owner is picked on a {@link ConsistentHashRing} by the user id, or the chat id if the update has no user.
+ * Updates this node owns, and updates with neither id, are dispatched locally; the others are forwarded through
+ * the {@link ShardTransport}. The owner accepts them with {@link #receive(Update)}, which always dispatches
+ * locally: while nodes disagree on membership, an update is forwarded at most once and never bounces between them.
+ * <p>
+ * Call {@link #setNodes(Collection)} on every node when membership changes. Rebalance listeners get
+ * the previous and the new ring, e.g. to drop cached users the node no longer owns.
+ *
+ * <pre>{@code
+ * ShardRouter router = new ShardRouter("node-a", List.of("node-a", "node-b"), dispatcher, transport);
+ * router.addRebalanceListener((previous, current) -> users.invalidateIf(id -> !router.owns(id)));
+ * router.route(update);
+ * }</pre>
+ */
+@Slf4j
+public class ShardRouter {
+
+    private final String localNode;
+    private final TelegramUpdateDispatcher<?> dispatcher;
+    private final ShardTransport transport;
+    private final int virtualNodes;
+    private final List<BiConsumer<ConsistentHashRing, ConsistentHashRing>> rebalanceListeners = new CopyOnWriteArrayList<>();
+    private volatile ConsistentHashRing ring;
+
+    public ShardRouter(String localNode, Collection<String> nodes, TelegramUpdateDispatcher<?> dispatcher,
+                       ShardTransport transport) {
+        this(localNode, nodes, dispatcher, transport, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ShardRouter(String localNode, Collection<String> nodes, TelegramUpdateDispatcher<?> dispatcher,
+                       ShardTransport transport, int virtualNodes) {
+        this.localNode = localNode;
+        this.dispatcher = dispatcher;
+        this.transport = transport;
+        this.virtualNodes = virtualNodes;
+        this.ring = new ConsistentHashRing(nodes, virtualNodes);
+    }
+
+    /**
+     * Dispatches the update on this node or forwards it to its owner.
+     *
+     * @return stage that completes when the update has been processed locally or accepted by the owner
+     */
+    public CompletionStage<Void> route(Update update) throws TelegramMiddlewareException {
+        DispatchContext context = new DispatchContext(update);
+        Long key = shardKey(context);
+        String owner = key != null ? ring.ownerOf(key) : localNode;
+        if (owner.equals(localNode)) {
+            return dispatcher.dispatchAsync(context);
+        }
+        return forward(owner, update);
+    }
+
+    /**
+     * Dispatches an update forwarded by another node on this node, even if this node does not own it
+     * according to its own view of the membership.
+     */
+    public CompletionStage<Void> receive(Update update) throws TelegramMiddlewareException {
+        DispatchContext context = new DispatchContext(update);
+        if (log.isDebugEnabled()) {
+            Long key = shardKey(context);
+            if (key != null && !owns(key)) {
+                log.debug("Update {} received for id {} owned by {}, membership is changing",
+                        update.getUpdateId(), key, ring.ownerOf(key));
+            }
+        }
+        return dispatcher.dispatchAsync(context);
+    }
+
+    public boolean owns(long id) {
+        return ring.ownerOf(id).equals(localNode);
+    }
+
+    public String ownerOf(long id) {
+        return ring.ownerOf(id);
+    }
+
+    public String getLocalNode() {
+        return localNode;
+    }
+
+    public ConsistentHashRing getRing() {
+        return ring;
+    }
+
+    /**
+     * Replaces the ring and notifies rebalance listeners. Updates being routed at the same time
+     * use either the previous or the new ring.
+     */
+    public void setNodes(Collection<String> nodes) {
+        ConsistentHashRing current = new ConsistentHashRing(nodes, virtualNodes);
+        ConsistentHashRing previous;
+        synchronized (this) {
+            previous = ring;
+            ring = current;
+        }
+        log.info("Shard membership changed from {} to {}", previous.getNodes(), current.getNodes());
+
+        for (BiConsumer<ConsistentHashRing, ConsistentHashRing> listener : rebalanceListeners) {
+            try {
+                listener.accept(previous, current);
+            } catch (RuntimeException e) {
+                log.error("Rebalance listener {} failed", listener, e);
+            }
+        }
+    }
+
+    /**
+     * @param listener called with the previous and the new ring after every {@link #setNodes(Collection)}
+     */
+    public void addRebalanceListener(BiConsumer<ConsistentHashRing, ConsistentHashRing> listener) {
+        rebalanceListeners.add(listener);
+    }
+
+    private CompletionStage<Void> forward(String owner, Update update) {
+        CompletionStage<Void> forwarded;
+        try {
+            forwarded = transport.forward(owner, update);
+        } catch (RuntimeException e) {
+            forwarded = CompletableFuture.failedFuture(e);
+        }
+        return forwarded.whenComplete((result, error) -> {
+            if (error != null) {
+                log.warn("Failed to forward update {} to node {}", update.getUpdateId(), owner, error);
+            }
+        });
+    }
+
+    private static Long shardKey(DispatchContext context) {
+        Long userId = context.getUserId();
+        return userId != null ? userId : context.getChatId();
+    }
+}